@@ -3,15 +3,22 @@ package soo.ram.querydsl;
 import com.querydsl.jpa.impl.JPAQueryFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableAsync;
+import soo.ram.querydsl.support.StartupProfiling;
 
 import javax.persistence.EntityManager;
 
-@SpringBootApplication
+//R2DBC ConnectionFactory 빈이 생기면 DataSource 자동설정이 꺼지므로 빼고, MemberReactiveRepository 가 풀을 직접 가진다
+@EnableAsync
+@SpringBootApplication(exclude = R2dbcAutoConfiguration.class)
 public class QuerydslApplication {
 
     public static void main(String[] args) {
-        SpringApplication.run(QuerydslApplication.class, args);
+        SpringApplication application = new SpringApplication(QuerydslApplication.class);
+        StartupProfiling.configure(application, args);
+        application.run(args);
     }
 
     @Bean
@@ -0,0 +1,19 @@
+package soo.ram.querydsl.batch;
+
+import lombok.Getter;
+
+/**
+ * 청크 처리가 실패해서 배치를 멈춤. lastMemberId 까지는 커밋되어 있고, 다시 실행하면 그 다음부터 처리한다.
+ */
+@Getter
+public class MemberBatchException extends RuntimeException {
+
+    private final String jobName;
+    private final long lastMemberId;
+
+    public MemberBatchException(String jobName, long lastMemberId, Throwable cause) {
+        super("batch " + jobName + " failed after member_id " + lastMemberId, cause);
+        this.jobName = jobName;
+        this.lastMemberId = lastMemberId;
+    }
+}
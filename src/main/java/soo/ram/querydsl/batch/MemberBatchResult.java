@@ -0,0 +1,18 @@
+package soo.ram.querydsl.batch;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.time.Duration;
+
+@Getter
+@ToString
+@RequiredArgsConstructor
+public class MemberBatchResult {
+
+    private final String jobName;
+    private final long processed;
+    private final int chunks;
+    private final Duration elapsed;
+}
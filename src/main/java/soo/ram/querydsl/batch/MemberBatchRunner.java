@@ -0,0 +1,236 @@
+package soo.ram.querydsl.batch;
+
+import com.querydsl.core.types.Predicate;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import soo.ram.querydsl.entity.BatchCheckpoint;
+import soo.ram.querydsl.entity.Member;
+
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static soo.ram.querydsl.entity.QMember.member;
+
+/**
+ * 회원 전체(또는 where 에 맞는 회원)를 청크로 나눠 처리하는 배치.
+ * <ul>
+ *     <li>호출한 스레드가 member_id 키셋(id > 마지막 id order by id limit chunkSize)으로 청크 경계를 읽는다.</li>
+ *     <li>작업 스레드가 청크마다 새 EntityManager 로 회원을 읽어 처리하고 flush/clear 후 커밋한다.</li>
+ *     <li>앞 청크가 모두 커밋된 지점까지만 BatchCheckpoint 를 올린다. 실패하면 거기서부터 다시 시작할 수 있고,
+ *     다 끝나면 체크포인트를 지운다.</li>
+ * </ul>
+ * 메트릭: member.batch.items(처리한 회원 수, 처리량), member.batch.chunk(청크 처리 시간),
+ * member.batch.lag(아직 처리하지 않은 회원 수). 모두 job 태그가 붙는다.
+ */
+@Slf4j
+@Component
+public class MemberBatchRunner {
+
+    private final EntityManagerFactory emf;
+    private final MeterRegistry meterRegistry;
+    private final int chunkSize;
+    private final int workers;
+    private final ThreadPoolTaskExecutor pool;
+    private final Map<String, AtomicLong> lags = new ConcurrentHashMap<>();
+
+    public MemberBatchRunner(EntityManagerFactory emf,
+                             MeterRegistry meterRegistry,
+                             @Value("${querydsl.batch.chunk-size:1000}") int chunkSize,
+                             @Value("${querydsl.batch.workers:4}") int workers) {
+        this.emf = emf;
+        this.meterRegistry = meterRegistry;
+        this.chunkSize = chunkSize;
+        this.workers = workers;
+
+        this.pool = new ThreadPoolTaskExecutor();
+        pool.setCorePoolSize(workers);
+        pool.setMaxPoolSize(workers);
+        pool.setThreadNamePrefix("member-batch-");
+        pool.initialize();
+    }
+
+    public MemberBatchResult run(String jobName, MemberChunkProcessor processor) {
+        return run(jobName, null, processor);
+    }
+
+    /**
+     * @param where 처리할 회원 조건, null 이면 전체
+     * @throws MemberBatchException 청크 처리 실패 (체크포인트까지는 커밋됨)
+     */
+    public MemberBatchResult run(String jobName, Predicate where, MemberChunkProcessor processor) {
+        long start = System.nanoTime();
+        Tags tags = Tags.of("job", jobName);
+        Counter items = meterRegistry.counter("member.batch.items", tags);
+        Timer chunkTimer = meterRegistry.timer("member.batch.chunk", tags);
+        AtomicLong lag = lags.computeIfAbsent(jobName,
+                name -> meterRegistry.gauge("member.batch.lag", tags, new AtomicLong()));
+
+        BatchCheckpoint checkpoint = inTransaction(em -> {
+            BatchCheckpoint found = em.find(BatchCheckpoint.class, jobName);
+            if (found == null) {
+                found = new BatchCheckpoint(jobName);
+                em.persist(found);
+            }
+            return found;
+        });
+        if (checkpoint.getLastMemberId() > 0) {
+            log.info("batch {} restarts after member_id {}", jobName, checkpoint.getLastMemberId());
+        }
+        lag.set(inTransaction(em -> new JPAQueryFactory(em)
+                .select(member.count())
+                .from(member)
+                .where(where, member.id.gt(checkpoint.getLastMemberId()))
+                .fetchOne()));
+
+        Watermark watermark = new Watermark(checkpoint.getLastMemberId(), checkpoint.getProcessed());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Semaphore inFlight = new Semaphore(workers * 2); //읽어둔 청크가 한없이 쌓이지 않게
+        List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        AtomicLong processed = new AtomicLong();
+
+        long lower = checkpoint.getLastMemberId();
+        while (failure.get() == null) {
+            long from = lower;
+            List<Long> ids = inTransaction(em -> new JPAQueryFactory(em)
+                    .select(member.id)
+                    .from(member)
+                    .where(where, member.id.gt(from))
+                    .orderBy(member.id.asc())
+                    .limit(chunkSize)
+                    .fetch());
+            if (ids.isEmpty()) {
+                break;
+            }
+            long upper = ids.get(ids.size() - 1);
+            int sequence = chunks.size();
+            acquire(inFlight);
+            chunks.add(CompletableFuture.runAsync(() -> {
+                try {
+                    if (failure.get() != null) {
+                        return;
+                    }
+                    int count = chunkTimer.recordCallable(() -> processChunk(where, from, upper, processor));
+                    items.increment(count);
+                    lag.addAndGet(-count);
+                    processed.addAndGet(count);
+                    synchronized (watermark) {
+                        if (watermark.complete(sequence, upper, count)) {
+                            saveCheckpoint(jobName, watermark);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    inFlight.release();
+                }
+            }, pool));
+            lower = upper;
+        }
+        CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0])).join();
+
+        if (failure.get() != null) {
+            throw new MemberBatchException(jobName, watermark.lastMemberId, failure.get());
+        }
+        inTransaction(em -> {
+            em.remove(em.find(BatchCheckpoint.class, jobName));
+            return null;
+        });
+        return new MemberBatchResult(jobName, processed.get(), chunks.size(), Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private int processChunk(Predicate where, long lower, long upper, MemberChunkProcessor processor) {
+        return inTransaction(em -> {
+            List<Member> chunk = new JPAQueryFactory(em)
+                    .selectFrom(member)
+                    .where(where, member.id.gt(lower), member.id.loe(upper))
+                    .orderBy(member.id.asc())
+                    .fetch();
+            processor.process(chunk, em);
+            em.flush();
+            em.clear();
+            return chunk.size();
+        });
+    }
+
+    private void saveCheckpoint(String jobName, Watermark watermark) {
+        inTransaction(em -> {
+            em.find(BatchCheckpoint.class, jobName).advance(watermark.lastMemberId, watermark.processed);
+            return null;
+        });
+    }
+
+    private <T> T inTransaction(Function<EntityManager, T> work) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            T result = work.apply(em);
+            em.getTransaction().commit();
+            return result;
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    private static void acquire(Semaphore semaphore) {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("batch interrupted", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * 순서 없이 끝나는 청크 중 앞에서부터 빠짐없이 끝난 곳까지의 위치.
+     */
+    private static class Watermark {
+        private final TreeMap<Integer, long[]> completed = new TreeMap<>();
+        private int next;
+        private long lastMemberId;
+        private long processed;
+
+        Watermark(long lastMemberId, long processed) {
+            this.lastMemberId = lastMemberId;
+            this.processed = processed;
+        }
+
+        boolean complete(int sequence, long upper, int count) {
+            completed.put(sequence, new long[]{upper, count});
+            boolean advanced = false;
+            while (completed.containsKey(next)) {
+                long[] chunk = completed.remove(next++);
+                lastMemberId = chunk[0];
+                processed += chunk[1];
+                advanced = true;
+            }
+            return advanced;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package soo.ram.querydsl.batch;
+
+import soo.ram.querydsl.entity.Member;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+
+/**
+ * 청크 하나를 처리한다. chunk 의 회원은 em 에 영속 상태라 바꾸면 청크 커밋 때 반영된다.
+ * 재시작하면 마지막 체크포인트 이후 청크를 다시 처리하므로 (at-least-once) 여러 번 실행해도 되게 만든다.
+ */
+@FunctionalInterface
+public interface MemberChunkProcessor {
+
+    void process(List<Member> chunk, EntityManager em);
+}
@@ -1,22 +1,150 @@
 package soo.ram.querydsl.controller;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import soo.ram.querydsl.dto.MemberChanges;
+import soo.ram.querydsl.dto.MemberField;
 import soo.ram.querydsl.dto.MemberSearchCondition;
 import soo.ram.querydsl.dto.MemberTeamDto;
+import soo.ram.querydsl.reactive.MemberReactiveRepository;
 import soo.ram.querydsl.repository.MemberJpaRepository;
+import soo.ram.querydsl.repository.MemberRepository;
+import soo.ram.querydsl.repository.MemberSqlRepository;
+import soo.ram.querydsl.support.SearchAdmission;
+import soo.ram.querydsl.support.SearchRejectedException;
 
+import java.time.Duration;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 @RestController
 @RequiredArgsConstructor
 public class MemberController {
 
     private final MemberJpaRepository memberJpaRepository;
+    private final MemberRepository memberRepository;
+    private final SearchAdmission searchAdmission;
+    private final MemberReactiveRepository memberReactiveRepository;
+    private final MemberSqlRepository memberSqlRepository;
 
+    @Value("${querydsl.deadline.search:2s}")
+    private Duration searchDeadline;
+
+    @Value("${querydsl.deadline.search-page:3s}")
+    private Duration searchPageDeadline;
+
+    @Value("${querydsl.deadline.stream:30s}")
+    private Duration streamDeadline;
+
+    @Value("${querydsl.changes.max-page-size:1000}")
+    private int maxChangesPageSize;
+
+    /**
+     * fields=memberId,username 처럼 필드를 고르면 그 컬럼만 조회해서 그 필드만 응답한다.
+     */
     @GetMapping("/v1/members")
-    public List<MemberTeamDto> searchMemberV1(MemberSearchCondition condition) {
-        return memberJpaRepository.search(condition);
+    public WebAsyncTask<List<?>> searchMemberV1(MemberSearchCondition condition,
+                                                @RequestParam(required = false) List<String> fields) {
+        Set<MemberField> selected = memberFields(fields);
+        return searchAdmission.submit("v1", searchDeadline, condition, null,
+                () -> selected == null
+                        ? memberJpaRepository.search(condition)
+                        : memberJpaRepository.searchFields(condition, selected));
+    }
+
+    /**
+     * since 버전 이후에 바뀐 회원, 지워진 회원, 바뀐 팀만 버전 순으로 준다. 처음에는 since=0 (전체)
+     * 응답의 next 를 다음 since 로 넘기면서 hasMore 가 false 가 될 때까지 부르고, 다음 동기화도 마지막 next 부터 한다.
+     */
+    @GetMapping("/v1/members/changes")
+    public MemberChanges memberChanges(@RequestParam(defaultValue = "0") long since,
+                                       @RequestParam(defaultValue = "100") int size) {
+        if (size < 1 || size > maxChangesPageSize) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size must be 1.." + maxChangesPageSize);
+        }
+        return memberSqlRepository.findChanges(since, size);
+    }
+
+    @GetMapping("/v2/members")
+    public WebAsyncTask<Page<MemberTeamDto>> searchMemberV2(MemberSearchCondition condition, Pageable pageable) {
+        return searchAdmission.submit("v2", searchPageDeadline, condition, pageable,
+                () -> memberRepository.searchPageSimple(condition, pageable));
+    }
+
+    /**
+     * approximateTotal=true 면 결과가 많을 때 전체 개수를 추정치로 주고 응답에 approximate=true 를 붙인다.
+     */
+    @GetMapping("/v3/members")
+    public WebAsyncTask<Page<MemberTeamDto>> searchMemberV3(MemberSearchCondition condition, Pageable pageable,
+                                                            @RequestParam(defaultValue = "false") boolean approximateTotal) {
+        return searchAdmission.submit("v3", searchPageDeadline, condition, pageable,
+                () -> approximateTotal
+                        ? memberRepository.searchPageEstimated(condition, pageable)
+                        : memberRepository.searchPageComplex(condition, pageable));
+    }
+
+    /**
+     * /v1/members 와 같은 검색을 R2DBC 로 실행해서 한 줄에 하나씩(NDJSON) 흘려보낸다.
+     * 클라이언트가 읽는 만큼만 DB 에서 가져오므로 결과 전체를 메모리에 모으지 않고, 기다리는 동안 스레드를 잡지 않는다.
+     * streamDeadline 은 응답 전체의 마감이다. 지나면 쿼리를 취소하고 에러로 끝내서 잘린 결과를 완료로 보이지 않게 한다.
+     */
+    @GetMapping(value = "/v4/members", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<MemberTeamDto> searchMemberV4(MemberSearchCondition condition) {
+        //timeout 은 원소 사이 간격만 보므로 구독할 때 마감 타이머를 따로 건다
+        return Flux.defer(() -> {
+            AtomicBoolean expired = new AtomicBoolean();
+            return memberReactiveRepository.search(condition)
+                    .takeUntilOther(Mono.delay(streamDeadline).doOnNext(tick -> expired.set(true)))
+                    .concatWith(Mono.defer(() -> expired.get()
+                            ? Mono.error(new QueryTimeoutException("/v4/members exceeded " + streamDeadline))
+                            : Mono.empty()));
+        });
+    }
+
+    private static Set<MemberField> memberFields(List<String> fields) {
+        if (fields == null || fields.isEmpty()) {
+            return null;
+        }
+        try {
+            return fields.stream()
+                    .map(MemberField::of)
+                    .collect(Collectors.toCollection(() -> EnumSet.noneOf(MemberField.class)));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    //JDBC 타임아웃이나 취소로 끝난 쿼리
+    @ExceptionHandler(QueryTimeoutException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public String queryTimeout(QueryTimeoutException e) {
+        return e.getMessage();
+    }
+
+    //비싼 검색 bulkhead 가 가득 참
+    @ExceptionHandler(SearchRejectedException.class)
+    public ResponseEntity<String> searchRejected(SearchRejectedException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfter().getSeconds()))
+                .body(e.getMessage());
     }
 }
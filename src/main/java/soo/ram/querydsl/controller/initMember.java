@@ -1,34 +1,107 @@
 package soo.ram.querydsl.controller;
 
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.event.spi.EventSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.context.annotation.Profile;
-import org.springframework.data.annotation.PersistenceConstructor;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.core.metrics.ApplicationStartup;
+import org.springframework.core.metrics.StartupStep;
+import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import soo.ram.querydsl.entity.ChangeVersion;
 import soo.ram.querydsl.entity.Member;
 import soo.ram.querydsl.entity.Team;
+import soo.ram.querydsl.generator.MemberDataGenerator;
+import soo.ram.querydsl.generator.MemberDataSpec;
+import soo.ram.querydsl.repository.ChangeVersionTracker;
 
-import javax.annotation.PostConstruct;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.transaction.Transactional;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
+@Slf4j
 @Profile("local")
 @Component
 @RequiredArgsConstructor
 public class initMember {
 
     private final InitMemberService initMemberService;
+    private final MemberDataGenerator memberDataGenerator;
+    private final Environment environment;
+    private final ApplicationStartup applicationStartup;
 
-    @PostConstruct
-    public void init(){
-        initMemberService.init();
+    @Value("${querydsl.seed.snapshot:}")
+    private String snapshotDir;
+
+    /**
+     * 기동이 끝난(ready) 뒤 별도 스레드에서 데이터를 넣는다.
+     * 스냅샷 디렉토리가 설정되어 있으면 CSV 파일을 H2 CSVREAD로 한번에 적재하고,
+     * 파일이 아직 없으면 기존 방식으로 넣은 다음 스냅샷을 만들어 둔다.
+     * querydsl.seed.generator.* 가 설정되어 있으면 기본 100명 대신 생성기로 넣는다.
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        long start = System.currentTimeMillis();
+        StartupStep step = applicationStartup.start("querydsl.seed");
+        try {
+            if (!StringUtils.hasText(snapshotDir)) {
+                step.tag("source", seed());
+            } else {
+                Path dir = Paths.get(snapshotDir);
+                if (InitMemberService.hasSnapshot(dir)) {
+                    step.tag("source", "snapshot");
+                    initMemberService.loadSnapshot(dir);
+                } else {
+                    step.tag("source", seed());
+                    initMemberService.writeSnapshot(dir);
+                }
+            }
+        } finally {
+            step.end();
+        }
+        log.info("member seed finished in {} ms", System.currentTimeMillis() - start);
+    }
+
+    private String seed() {
+        MemberDataSpec spec = Binder.get(environment)
+                .bind("querydsl.seed.generator", MemberDataSpec.class)
+                .orElse(null);
+        if (spec == null) {
+            initMemberService.init();
+            return "default";
+        }
+        memberDataGenerator.generate(spec);
+        return "generator";
     }
 
     @Component
     static class InitMemberService {
+
+        static final String TEAM_FILE = "team.csv";
+        static final String MEMBER_FILE = "member.csv";
+
         @PersistenceContext
         private EntityManager em;
 
+        @Autowired
+        private ChangeVersionTracker changeVersionTracker;
+
+        static boolean hasSnapshot(Path dir) {
+            return Files.isReadable(dir.resolve(TEAM_FILE)) && Files.isReadable(dir.resolve(MEMBER_FILE));
+        }
+
         @Transactional
         public void init() {
             Team teamA = new Team("teamA");
@@ -41,5 +114,48 @@ public class initMember {
                 em.persist(new Member("member" + i, i, selectedTeam));
             }
         }
+
+        /**
+         * persist 루프 대신 H2 CSVREAD로 insert ... select 한번에 적재한다.
+         * id를 그대로 넣기 때문에 hibernate_sequence를 적재된 최대 id 다음으로 맞춰준다.
+         * change_version 은 스냅샷에 없으니 적재할 때 새로 매긴다.
+         */
+        @Transactional
+        public void loadSnapshot(Path dir) {
+            changeVersionTracker.beforeWrite(em.unwrap(EventSource.class));
+            em.createNativeQuery("insert into team (team_id, name, change_version) " +
+                    "select team_id, name, nextval('" + ChangeVersion.SEQUENCE + "') from csvread(" + fileName(dir, TEAM_FILE) + ")")
+                    .executeUpdate();
+            em.createNativeQuery("insert into member (member_id, user_name, normalized_user_name, age, team_id, change_version) " +
+                    "select member_id, user_name, lower(user_name), age, nullif(team_id, ''), nextval('" + ChangeVersion.SEQUENCE + "') from csvread(" + fileName(dir, MEMBER_FILE) + ")")
+                    .executeUpdate();
+
+            Number maxId = (Number) em.createNativeQuery(
+                    "select greatest(coalesce((select max(team_id) from team), 0), " +
+                            "coalesce((select max(member_id) from member), 0))")
+                    .getSingleResult();
+            em.createNativeQuery("alter sequence hibernate_sequence restart with " + (maxId.longValue() + 1))
+                    .executeUpdate();
+        }
+
+        @Transactional
+        public void writeSnapshot(Path dir) {
+            try {
+                Files.createDirectories(dir);
+            } catch (IOException e) {
+                throw new IllegalStateException("cannot create snapshot directory " + dir, e);
+            }
+            em.createNativeQuery("call csvwrite(?1, 'select team_id, name from team')")
+                    .setParameter(1, dir.resolve(TEAM_FILE).toString())
+                    .getSingleResult();
+            em.createNativeQuery("call csvwrite(?1, 'select member_id, user_name, age, team_id from member')")
+                    .setParameter(1, dir.resolve(MEMBER_FILE).toString())
+                    .getSingleResult();
+        }
+
+        //CSVREAD는 테이블 함수라 파일명을 바인딩 파라미터로 받지 못한다
+        private static String fileName(Path dir, String file) {
+            return "'" + dir.resolve(file).toString().replace("'", "''") + "'";
+        }
     }
 }
@@ -0,0 +1,24 @@
+package soo.ram.querydsl.dto;
+
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+
+/**
+ * 전체 개수(totalElements)가 추정치일 수 있는 페이지.
+ * approximate 가 true 면 totalElements, totalPages 는 표본/통계로 추정한 값이다.
+ */
+public class EstimatedPage<T> extends PageImpl<T> {
+
+    private final boolean approximate;
+
+    public EstimatedPage(List<T> content, Pageable pageable, long total, boolean approximate) {
+        super(content, pageable, total);
+        this.approximate = approximate;
+    }
+
+    public boolean isApproximate() {
+        return approximate;
+    }
+}
@@ -0,0 +1,32 @@
+package soo.ram.querydsl.dto;
+
+import lombok.Data;
+
+/**
+ * since 이후에 바뀐 회원 한 명. deleted 면 memberId 와 version 만 있다. (tombstone)
+ */
+@Data
+public class MemberChange {
+    private long version;
+    private boolean deleted;
+    private Long memberId;
+    private String username;
+    private Integer age;
+    private Long teamId;
+    private String teamName;
+
+    public MemberChange(long version, Long memberId, String username, Integer age, Long teamId, String teamName) {
+        this.version = version;
+        this.memberId = memberId;
+        this.username = username;
+        this.age = age;
+        this.teamId = teamId;
+        this.teamName = teamName;
+    }
+
+    public MemberChange(long version, Long memberId) {
+        this.version = version;
+        this.deleted = true;
+        this.memberId = memberId;
+    }
+}
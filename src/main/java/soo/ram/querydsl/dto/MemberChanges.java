@@ -0,0 +1,19 @@
+package soo.ram.querydsl.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * /v1/members/changes 한 페이지. 회원, 삭제, 팀 변경을 버전 순으로 합쳐 최대 size 개.
+ * 다음 페이지(와 다음 동기화)는 since=next 로 부른다. hasMore 가 false 면 지금까지의 변경을 다 받은 것이다.
+ */
+@Getter
+@AllArgsConstructor
+public class MemberChanges {
+    private final List<MemberChange> members;
+    private final List<TeamChange> teams;
+    private final long next;
+    private final boolean hasMore;
+}
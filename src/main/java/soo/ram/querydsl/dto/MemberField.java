@@ -0,0 +1,35 @@
+package soo.ram.querydsl.dto;
+
+import com.querydsl.core.types.Expression;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Arrays;
+
+import static soo.ram.querydsl.entity.QMember.member;
+import static soo.ram.querydsl.entity.QTeam.team;
+
+/**
+ * /v1/members?fields=memberId,username 처럼 골라서 받을 수 있는 MemberTeamDto 필드.
+ * teamId 는 member 의 외래키라 조인 없이 읽고, teamName 만 team 조인이 필요하다.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum MemberField {
+    MEMBER_ID("memberId", member.id, false),
+    USERNAME("username", member.userName, false),
+    AGE("age", member.age, false),
+    TEAM_ID("teamId", member.team.id, false),
+    TEAM_NAME("teamName", team.name, true);
+
+    private final String fieldName;
+    private final Expression<?> expression;
+    private final boolean teamJoin;
+
+    public static MemberField of(String fieldName) {
+        return Arrays.stream(values())
+                .filter(field -> field.fieldName.equals(fieldName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("알 수 없는 필드입니다: " + fieldName));
+    }
+}
@@ -6,6 +6,8 @@ import lombok.Data;
 public class MemberSearchCondition {
 
     private String username;
+    private UsernameMatch usernameMatch = UsernameMatch.EXACT;
+    private boolean ignoreCase; //true 면 normalizedUserName 인덱스로 대소문자 무시 검색
     private String teamName;
     private Integer ageGoe;
     private Integer ageLoe;
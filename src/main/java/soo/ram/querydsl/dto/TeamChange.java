@@ -0,0 +1,15 @@
+package soo.ram.querydsl.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * since 이후에 바뀐 팀. 이름이 바뀌면 그 팀 회원의 teamName 도 바뀐 것이다.
+ */
+@Data
+@AllArgsConstructor
+public class TeamChange {
+    private long version;
+    private Long teamId;
+    private String teamName;
+}
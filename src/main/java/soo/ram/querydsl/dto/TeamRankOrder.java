@@ -0,0 +1,11 @@
+package soo.ram.querydsl.dto;
+
+/**
+ * 팀별 상위 N명(findTopPerTeam)을 고르는 순서.
+ * 정렬 값이 같으면 member_id 가 작은 회원이 앞선다.
+ */
+public enum TeamRankOrder {
+    OLDEST,   //나이 많은 순
+    YOUNGEST, //나이 적은 순
+    NEWEST    //최근 가입(member_id 큰) 순
+}
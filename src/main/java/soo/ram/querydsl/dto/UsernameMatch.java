@@ -0,0 +1,7 @@
+package soo.ram.querydsl.dto;
+
+public enum UsernameMatch {
+    EXACT,
+    PREFIX,
+    CONTAINS
+}
@@ -0,0 +1,33 @@
+package soo.ram.querydsl.entity;
+
+import lombok.*;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * 배치 작업이 어디까지 커밋했는지. 재시작하면 lastMemberId 다음부터 다시 읽는다.
+ */
+@Entity
+@Getter
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+@ToString(of = {"jobName", "lastMemberId", "processed"})
+public class BatchCheckpoint {
+
+    @Id
+    private String jobName;
+    private long lastMemberId;
+    private long processed;
+    private LocalDateTime updatedAt;
+
+    public BatchCheckpoint(String jobName) {
+        this.jobName = jobName;
+        this.updatedAt = LocalDateTime.now();
+    }
+
+    public void advance(long lastMemberId, long processed) {
+        this.lastMemberId = lastMemberId;
+        this.processed = processed;
+        this.updatedAt = LocalDateTime.now();
+    }
+}
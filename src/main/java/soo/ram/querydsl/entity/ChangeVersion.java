@@ -0,0 +1,19 @@
+package soo.ram.querydsl.entity;
+
+/**
+ * 회원/팀 변경 버전. 모든 쓰기가 같은 시퀀스(change_version_seq)에서 값을 받아서 DB 전체에서 커지는 순서가 된다.
+ * 엔티티 리스너는 벌크 update/delete 를 거치지 않기 때문에 값은 SQL 에서 DB 가 매긴다.
+ */
+public final class ChangeVersion {
+
+    public static final String SEQUENCE = "change_version_seq";
+
+    /**
+     * Member, Team 의 change_version 쓰기 표현식. 엔티티의 값(?)은 버리고 시퀀스 다음 값을 쓴다.
+     * (hibernate 는 쓰기 표현식에 ? 가 하나 있어야 한다)
+     */
+    static final String WRITE = "coalesce(nextval('" + SEQUENCE + "'), ?)";
+
+    private ChangeVersion() {
+    }
+}
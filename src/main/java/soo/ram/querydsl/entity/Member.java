@@ -1,10 +1,18 @@
 package soo.ram.querydsl.entity;
 
 import lombok.*;
+import org.hibernate.Hibernate;
+import org.hibernate.annotations.ColumnTransformer;
 
 import javax.persistence.*;
+import java.util.Locale;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_member_user_name", columnList = "userName"),
+        @Index(name = "idx_member_user_name_normalized", columnList = "normalizedUserName"),
+        @Index(name = "idx_member_change_version", columnList = "changeVersion")
+})
 @Getter
 @Setter
 @NoArgsConstructor(access = AccessLevel.PROTECTED)
@@ -18,16 +26,32 @@ public class Member{
     private String userName;
     private int age;
 
+    /**
+     * 대소문자 무시 검색용으로 소문자로 맞춘 userName. setUserName 에서 같이 바뀐다.
+     * 벌크 update 로 userName 을 바꿀 때는 이 컬럼도 같이 set 해야 한다.
+     */
+    @Setter(AccessLevel.NONE)
+    private String normalizedUserName;
+
+    /**
+     * 마지막으로 바뀐 버전. insert/update 문마다 DB 가 change_version_seq 에서 새 값을 넣는다. (MemberTombstone 참고)
+     * 엔티티의 값은 다시 읽기 전까지 갱신되지 않는다.
+     * 벌크 update 는 이 컬럼도 같이 set 해야 한다. (MemberJpaRepository.bulkAddAge 참고)
+     */
+    @Setter(AccessLevel.NONE)
+    @ColumnTransformer(write = ChangeVersion.WRITE)
+    private long changeVersion;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "team_id")
     private Team team;
 
     public Member(String userName) {
-        this.userName = userName;
+        setUserName(userName);
     }
 
     public Member(String userName, int age, Team team) {
-        this.userName = userName;
+        setUserName(userName);
         this.age = age;
         if (team != null) {
             changeTeam(team);
@@ -35,14 +59,31 @@ public class Member{
     }
 
     public Member(String user, int age) {
-        this.userName = user;
+        setUserName(user);
         this.age = age;
     }
 
+    public void setUserName(String userName) {
+        this.userName = userName;
+        this.normalizedUserName = normalize(userName);
+    }
+
+    public static String normalize(String userName) {
+        return userName == null ? null : userName.toLowerCase(Locale.ROOT);
+    }
 
+    /**
+     * 연관관계의 주인(member.team_id)만 바꾸고, Team.member 컬렉션은 로딩하지 않고 맞춘다.
+     * 새 팀: 로딩 전이면 Hibernate 가 add 를 큐에 쌓아뒀다가 로딩될 때 반영한다. (inverse bag)
+     * 이전 팀: 이미 로딩된 컬렉션에서만 뺀다. remove 는 큐에 쌓이지 않고 컬렉션 전체를 로딩하기 때문이다.
+     */
     public void changeTeam(Team team) {
+        Team previous = this.team;
         this.team = team;
-        team.getMember().add(this);
+        if (previous != null && previous != team && Hibernate.isInitialized(previous)) {
+            previous.removeMember(this);
+        }
+        team.addMember(this);
     }
 }
 
@@ -0,0 +1,26 @@
+package soo.ram.querydsl.entity;
+
+import lombok.*;
+
+import javax.persistence.*;
+
+/**
+ * 지워진 회원. /v1/members/changes 가 삭제도 알려줄 수 있게 지울 때 같은 트랜잭션에서 남긴다.
+ * id 가 지워진 버전이고, change_version_seq 는 이 엔티티의 id 생성기로 만들어진다.
+ */
+@Entity
+@Getter
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+@ToString(of = {"changeVersion", "memberId"})
+public class MemberTombstone {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = ChangeVersion.SEQUENCE)
+    @SequenceGenerator(name = ChangeVersion.SEQUENCE, sequenceName = ChangeVersion.SEQUENCE, allocationSize = 1)
+    private Long changeVersion;
+    private Long memberId;
+
+    public MemberTombstone(Long memberId) {
+        this.memberId = memberId;
+    }
+}
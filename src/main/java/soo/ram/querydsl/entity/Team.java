@@ -1,12 +1,17 @@
 package soo.ram.querydsl.entity;
 
 import lombok.*;
+import org.hibernate.Hibernate;
+import org.hibernate.annotations.ColumnTransformer;
+import org.hibernate.annotations.LazyCollection;
+import org.hibernate.annotations.LazyCollectionOption;
 
 import javax.persistence.*;
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
+@Table(indexes = @Index(name = "idx_team_change_version", columnList = "changeVersion"))
 @Getter
 @Setter
 @NoArgsConstructor(access = AccessLevel.PROTECTED)
@@ -21,11 +26,29 @@ public class Team {
 
     private String name;
 
+    //Member.changeVersion 과 같음. 이름이 바뀌면 팀원 전체가 바뀐 것으로 본다
+    @Setter(AccessLevel.NONE)
+    @ColumnTransformer(write = ChangeVersion.WRITE)
+    private long changeVersion;
+
+    //EXTRA: size(), contains() 는 컬렉션 전체 대신 count/존재 쿼리로 처리한다
     @OneToMany(mappedBy = "team")
+    @LazyCollection(LazyCollectionOption.EXTRA)
     private List<Member> member = new ArrayList<>();
 
     public Team(String name) {
         this.name = name;
     }
 
+    //Member.changeTeam 에서만 부른다
+    void addMember(Member member) {
+        this.member.add(member);
+    }
+
+    void removeMember(Member member) {
+        if (Hibernate.isInitialized(this.member)) {
+            this.member.remove(member);
+        }
+    }
+
 }
@@ -0,0 +1,40 @@
+package soo.ram.querydsl.generator;
+
+import java.util.Random;
+
+public enum AgeDistribution {
+
+    UNIFORM {
+        @Override
+        int sample(Random random, int min, int max) {
+            return min + random.nextInt(max - min + 1);
+        }
+    },
+    /**
+     * 가운데 나이에 몰리는 분포 (표준편차 = 범위 / 6)
+     */
+    NORMAL {
+        @Override
+        int sample(Random random, int min, int max) {
+            double mean = (min + max) / 2.0;
+            double sd = (max - min) / 6.0;
+            return clamp((int) Math.round(mean + random.nextGaussian() * sd), min, max);
+        }
+    },
+    /**
+     * 어린 나이에 몰리고 꼬리가 긴 분포 (평균 = 범위 / 5)
+     */
+    EXPONENTIAL {
+        @Override
+        int sample(Random random, int min, int max) {
+            double mean = (max - min) / 5.0;
+            return clamp(min + (int) (-Math.log(1 - random.nextDouble()) * mean), min, max);
+        }
+    };
+
+    abstract int sample(Random random, int min, int max);
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,15 @@
+package soo.ram.querydsl.generator;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+@Getter
+@ToString
+@RequiredArgsConstructor
+public class GeneratedMember {
+
+    private final String username;
+    private final int age;
+    private final int teamIndex;
+}
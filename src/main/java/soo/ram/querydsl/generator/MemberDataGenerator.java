@@ -0,0 +1,105 @@
+package soo.ram.querydsl.generator;
+
+import org.springframework.stereotype.Component;
+import soo.ram.querydsl.entity.Member;
+import soo.ram.querydsl.entity.Team;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * 규모 테스트용 Member/Team 데이터 생성기.
+ * 같은 seed 와 spec 이면 항상 같은 데이터가 나온다.
+ */
+@Component
+public class MemberDataGenerator {
+
+    @PersistenceContext
+    private EntityManager em;
+
+    /**
+     * DB에 넣지 않고 생성될 회원만 순서대로 넘겨준다.
+     */
+    public void forEachMember(MemberDataSpec spec, Consumer<GeneratedMember> consumer) {
+        Random random = new Random(spec.getSeed());
+        double[] teamCdf = teamCdf(spec.getTeamCount(), spec.getTeamSkew());
+        int cardinality = spec.getUsernameCardinality() > 0 ? spec.getUsernameCardinality() : spec.getMemberCount();
+
+        for (int i = 0; i < spec.getMemberCount(); i++) {
+            int nameIndex = cardinality >= spec.getMemberCount() ? i : random.nextInt(cardinality);
+            int age = spec.getAgeDistribution().sample(random, spec.getAgeMin(), spec.getAgeMax());
+            int teamIndex = pickTeam(teamCdf, random.nextDouble());
+            consumer.accept(new GeneratedMember(username(nameIndex, spec.getUsernameLength()), age, teamIndex));
+        }
+    }
+
+    /**
+     * 팀을 먼저 넣고, 회원은 batchSize 마다 flush/clear 하면서 JDBC 배치 insert 로 넣는다.
+     * 팀은 id 참조(getReference)로만 연결해서 Team.member 컬렉션을 건드리지 않는다.
+     *
+     * @return 생성된 팀 id, teamIndex 순서
+     */
+    @Transactional
+    public List<Long> generate(MemberDataSpec spec) {
+        List<Long> teamIds = new ArrayList<>(spec.getTeamCount());
+        for (int i = 0; i < spec.getTeamCount(); i++) {
+            Team team = new Team("team" + i);
+            em.persist(team);
+            teamIds.add(team.getId());
+        }
+        em.flush();
+        em.clear();
+
+        int[] count = {0};
+        forEachMember(spec, generated -> {
+            Member member = new Member(generated.getUsername(), generated.getAge());
+            member.setTeam(em.getReference(Team.class, teamIds.get(generated.getTeamIndex())));
+            em.persist(member);
+            if (++count[0] % spec.getBatchSize() == 0) {
+                em.flush();
+                em.clear();
+            }
+        });
+        em.flush();
+        em.clear();
+        return teamIds;
+    }
+
+    static double[] teamCdf(int teamCount, double skew) {
+        double[] cdf = new double[teamCount];
+        double sum = 0;
+        for (int rank = 1; rank <= teamCount; rank++) {
+            sum += 1.0 / Math.pow(rank, skew);
+            cdf[rank - 1] = sum;
+        }
+        for (int i = 0; i < teamCount; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    private static int pickTeam(double[] cdf, double value) {
+        int index = Arrays.binarySearch(cdf, value);
+        index = index >= 0 ? index : -index - 1;
+        return Math.min(index, cdf.length - 1);
+    }
+
+    private static String username(int nameIndex, int length) {
+        StringBuilder name = new StringBuilder("member").append(nameIndex);
+        if (name.length() < length) {
+            name.append('_');
+            long state = nameIndex * 0x9E3779B97F4A7C15L;
+            while (name.length() < length) {
+                state = state * 6364136223846793005L + 1442695040888963407L;
+                name.append((char) ('a' + (int) ((state >>> 33) % 26)));
+            }
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,18 @@
+package soo.ram.querydsl.generator;
+
+import lombok.Data;
+
+@Data
+public class MemberDataSpec {
+
+    private long seed = 1L;
+    private int memberCount = 100;
+    private int teamCount = 2;
+    private double teamSkew = 0.0; //Zipf 지수, 0이면 팀마다 고르게 나뉜다
+    private AgeDistribution ageDistribution = AgeDistribution.UNIFORM;
+    private int ageMin = 0;
+    private int ageMax = 99;
+    private int usernameCardinality = 0; //서로 다른 이름 수, 0이면 memberCount와 같다
+    private int usernameLength = 0; //이름을 이 길이까지 늘린다, 0이면 늘리지 않는다
+    private int batchSize = 1000;
+}
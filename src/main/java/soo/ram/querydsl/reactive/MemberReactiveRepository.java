@@ -0,0 +1,115 @@
+package soo.ram.querydsl.reactive;
+
+import com.querydsl.sql.SQLBindings;
+import io.r2dbc.h2.H2ConnectionConfiguration;
+import io.r2dbc.h2.H2ConnectionFactory;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.Statement;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import soo.ram.querydsl.dto.MemberSearchCondition;
+import soo.ram.querydsl.dto.MemberTeamDto;
+import soo.ram.querydsl.repository.MemberSqlRepository;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * MemberSearchCondition 검색을 R2DBC 로 실행해서 결과를 한 행씩 흘려보낸다.
+ * SQL 은 MemberSqlRepository.searchAfterSql(querydsl-sql)로 만들어서 blocking 검색과 조건이 같다.
+ * <p>
+ * r2dbc-h2 는 결과 전체를 한번에 받아오므로(fetch size 무제한) 쿼리 하나로는 backpressure 가 DB 까지 가지 않는다.
+ * 그래서 member_id 순 keyset 청크(fetch-size 행)로 나눠, 구독자가 앞 청크를 다 받아간 뒤에만 다음 청크를 읽는다.
+ * 청크마다 커넥션을 빌렸다가 바로 돌려주므로 느린 구독자가 스레드도 커넥션도 잡고 있지 않는다.
+ * 대신 청크 사이에 커밋된 변경은 보일 수 있다. (한 스냅샷이 아님)
+ * <p>
+ * R2DBC 커넥션 풀은 여기서만 쓰고 빈으로 등록하지 않는다. (QuerydslApplication 참고)
+ */
+@Repository
+public class MemberReactiveRepository implements DisposableBean {
+
+    private final MemberSqlRepository memberSqlRepository;
+    private final ConnectionPool pool;
+    private final int fetchSize;
+
+    public MemberReactiveRepository(MemberSqlRepository memberSqlRepository,
+                                    @Value("${querydsl.r2dbc.url:${spring.datasource.url}}") String url,
+                                    @Value("${spring.datasource.username:sa}") String username,
+                                    @Value("${spring.datasource.password:}") String password,
+                                    @Value("${querydsl.r2dbc.pool.max-size:10}") int maxSize,
+                                    @Value("${querydsl.r2dbc.pool.max-acquire-time:5s}") Duration maxAcquireTime,
+                                    @Value("${querydsl.r2dbc.fetch-size:500}") int fetchSize) {
+        this.memberSqlRepository = memberSqlRepository;
+        this.fetchSize = fetchSize;
+        //jdbc:h2:tcp://... 와 같은 DB 를 R2DBC 드라이버로 연다 (H2ConnectionConfiguration.url 은 jdbc:h2: 뒤쪽만 받는다)
+        H2ConnectionConfiguration configuration = H2ConnectionConfiguration.builder()
+                .url(url.replaceFirst("^(jdbc|r2dbc):h2:", ""))
+                .username(username)
+                .password(password == null ? "" : password)
+                .build();
+        this.pool = new ConnectionPool(ConnectionPoolConfiguration.builder(new H2ConnectionFactory(configuration))
+                .initialSize(0)
+                .maxSize(maxSize)
+                .maxAcquireTime(maxAcquireTime)
+                .build());
+    }
+
+    /**
+     * member_id 순으로 흘려보낸다.
+     */
+    public Flux<MemberTeamDto> search(MemberSearchCondition condition) {
+        return chunk(condition, null)
+                .expand(rows -> rows.size() < fetchSize
+                        ? Mono.empty()
+                        : chunk(condition, rows.get(rows.size() - 1).getMemberId()))
+                .concatMapIterable(rows -> rows, 1);
+    }
+
+    private Mono<List<MemberTeamDto>> chunk(MemberSearchCondition condition, Long afterMemberId) {
+        return Mono.defer(() -> {
+            SQLBindings sql = memberSqlRepository.searchAfterSql(condition, afterMemberId, fetchSize);
+            return Flux.usingWhen(pool.create(),
+                    connection -> execute(connection, sql),
+                    Connection::close)
+                    .collectList();
+        });
+    }
+
+    /**
+     * 지금 빌려간 커넥션 수. (테스트, 벤치마크용)
+     */
+    public int acquiredConnections() {
+        return pool.getMetrics().map(metrics -> metrics.acquiredSize()).orElse(0);
+    }
+
+    private static Flux<MemberTeamDto> execute(Connection connection, SQLBindings sql) {
+        Statement statement = connection.createStatement(sql.getSQL());
+        List<Object> bindings = sql.getNullFriendlyBindings();
+        for (int i = 0; i < bindings.size(); i++) {
+            statement.bind(i, bindings.get(i));
+        }
+        return Flux.from(statement.execute())
+                .concatMap(result -> result.map((row, metadata) -> memberTeamDto(row)));
+    }
+
+    private static MemberTeamDto memberTeamDto(Row row) {
+        return new MemberTeamDto(
+                row.get(0, Long.class),
+                row.get(1, String.class),
+                Optional.ofNullable(row.get(2, Integer.class)).orElse(0),
+                row.get(3, Long.class),
+                row.get(4, String.class));
+    }
+
+    @Override
+    public void destroy() {
+        pool.dispose();
+    }
+}
@@ -0,0 +1,117 @@
+package soo.ram.querydsl.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.hibernate.boot.Metadata;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PreDeleteEvent;
+import org.hibernate.event.spi.PreDeleteEventListener;
+import org.hibernate.event.spi.PreInsertEvent;
+import org.hibernate.event.spi.PreInsertEventListener;
+import org.hibernate.event.spi.PreUpdateEvent;
+import org.hibernate.event.spi.PreUpdateEventListener;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.stereotype.Component;
+import soo.ram.querydsl.entity.ChangeVersion;
+import soo.ram.querydsl.entity.Member;
+import soo.ram.querydsl.entity.Team;
+
+import java.sql.PreparedStatement;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 기본 EntityManagerFactory 의 회원/팀 엔티티 쓰기를 ChangeVersionTracker 에 알리고,
+ * 회원이 지워지면 같은 트랜잭션에 member_tombstone 을 남긴다.
+ * em.remove 를 거치는 삭제(JpaRepository.delete/deleteById/deleteAll, 배치 청크)는 모두 여기를 지난다.
+ * JPQL 벌크 delete 는 이벤트가 없으므로 MemberJpaRepository.bulkDelete 로 지운다. (MemberBatchDelete)
+ */
+@Component
+@RequiredArgsConstructor
+public class ChangeVersionListener implements HibernatePropertiesCustomizer, Integrator,
+        PreInsertEventListener, PreUpdateEventListener, PreDeleteEventListener, PostDeleteEventListener {
+
+    private static final String INSERT_TOMBSTONE = "insert into member_tombstone (change_version, member_id) " +
+            "values (nextval('" + ChangeVersion.SEQUENCE + "'), ?)";
+
+    private final ChangeVersionTracker changeVersionTracker;
+
+    //hibernate.integrator_provider (EntityManagerFactoryBuilderImpl.INTEGRATOR_PROVIDER)
+    @Override
+    public void customize(Map<String, Object> hibernateProperties) {
+        hibernateProperties.put("hibernate.integrator_provider",
+                (IntegratorProvider) () -> Collections.singletonList(this));
+    }
+
+    @Override
+    public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        EventListenerRegistry registry = serviceRegistry.getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.PRE_INSERT, this);
+        registry.appendListeners(EventType.PRE_UPDATE, this);
+        registry.appendListeners(EventType.PRE_DELETE, this);
+        registry.appendListeners(EventType.POST_DELETE, this);
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+
+    @Override
+    public boolean onPreInsert(PreInsertEvent event) {
+        beforeWrite(event.getEntity(), event.getSession());
+        return false;
+    }
+
+    @Override
+    public boolean onPreUpdate(PreUpdateEvent event) {
+        beforeWrite(event.getEntity(), event.getSession());
+        return false;
+    }
+
+    @Override
+    public boolean onPreDelete(PreDeleteEvent event) {
+        beforeWrite(event.getEntity(), event.getSession());
+        return false;
+    }
+
+    //delete 문은 배치에 쌓여 있을 수 있지만 같은 커넥션, 같은 트랜잭션이라 커밋 여부는 같다
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (!(event.getEntity() instanceof Member)) {
+            return;
+        }
+        event.getSession().doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_TOMBSTONE)) {
+                statement.setLong(1, (Long) event.getId());
+                statement.executeUpdate();
+            }
+        });
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return false;
+    }
+
+    //PostActionEventListener 의 추상 메서드라 구현은 해야 한다 (hibernate 5.4 는 오타 난 이름이 기본 구현)
+    @Override
+    @SuppressWarnings("deprecation")
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return requiresPostCommitHandling(persister);
+    }
+
+    private void beforeWrite(Object entity, EventSource session) {
+        if (entity instanceof Member || entity instanceof Team) {
+            changeVersionTracker.beforeWrite(session);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package soo.ram.querydsl.repository;
+
+import org.hibernate.event.spi.EventSource;
+import org.springframework.stereotype.Component;
+import soo.ram.querydsl.entity.ChangeVersion;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 아직 커밋되지 않은 회원/팀 쓰기를 추적해서, 커밋이 끝났다고 볼 수 있는 change_version 상한을 알려준다.
+ * <p>
+ * change_version 은 커밋이 아니라 쓸 때 매겨진다. 먼저 버전을 받은 트랜잭션이 늦게 커밋되면
+ * 그보다 큰 버전까지 읽어간 클라이언트는 그 변경을 영영 놓친다.
+ * 그래서 쓰는 세션은 첫 쓰기 전에 그 때의 시퀀스 값을 등록하고 (그 트랜잭션은 이보다 큰 버전만 받는다),
+ * 트랜잭션이 끝나면 뺀다. 등록된 값 중 가장 작은 값까지는 커밋됐거나 롤백된 버전뿐이다.
+ * <p>
+ * 등록된 쓰기가 커밋될 때마다 commitGeneration 이 1씩 커진다. (SearchPageCacheFilter 의 캐시 key)
+ * <p>
+ * 엔티티 쓰기는 ChangeVersionListener 가, 벌크 연산과 CSV 적재는 직접 beforeWrite 를 부른다.
+ * 이 JVM 의 기본 EntityManagerFactory 쓰기만 안다. (샤드와 다른 인스턴스는 /v1/members/changes 대상이 아니다)
+ */
+@Component
+public class ChangeVersionTracker {
+
+    private static final String CURRENT_VALUE = "select current_value from information_schema.sequences where sequence_name = '"
+            + ChangeVersion.SEQUENCE.toUpperCase() + "'";
+
+    //쓰는 중인 세션 -> 쓰기 전 시퀀스 값 (세션은 equals 를 재정의하지 않아서 같은 인스턴스끼리만 같다)
+    private final Map<EventSource, Long> writing = new ConcurrentHashMap<>();
+    private final AtomicLong commitGeneration = new AtomicLong();
+
+    /**
+     * session 의 트랜잭션이 회원/팀을 쓰기 직전에 부른다. 트랜잭션마다 처음 한번만 등록한다.
+     */
+    public void beforeWrite(EventSource session) {
+        if (writing.containsKey(session)) {
+            return;
+        }
+        //등록할 값은 이 트랜잭션이 받을 첫 버전보다 작기만 하면 되므로 시퀀스는 락 없이 먼저 읽는다
+        if (writing.putIfAbsent(session, currentValue(session)) != null) {
+            return;
+        }
+        session.getActionQueue().registerProcess((success, completed) -> {
+            writing.remove(session);
+            if (success) {
+                commitGeneration.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * @param reader 읽는 세션. 자기 트랜잭션의 쓰기는 커밋 전이라도 보이므로 상한에서 뺀다.
+     * @return 이 값 이하의 change_version 은 더 생기지 않는다
+     */
+    public long safeVersion(EventSource reader) {
+        //등록된 값보다 먼저 읽어야 한다. 읽은 뒤에 등록하는 세션은 이 값보다 큰 버전만 받는다
+        long safe = currentValue(reader);
+        for (Map.Entry<EventSource, Long> entry : writing.entrySet()) {
+            if (entry.getKey() != reader) {
+                safe = Math.min(safe, entry.getValue());
+            }
+        }
+        return safe;
+    }
+
+    /**
+     * 커밋된 회원/팀 쓰기 트랜잭션 수. 버전 순서와 상관없이 커밋이 끝난 뒤에 커진다.
+     */
+    public long commitGeneration() {
+        return commitGeneration.get();
+    }
+
+    private static long currentValue(EventSource session) {
+        return session.doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(CURRENT_VALUE);
+                 ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0L;
+            }
+        });
+    }
+}
@@ -0,0 +1,14 @@
+package soo.ram.querydsl.repository;
+
+import soo.ram.querydsl.entity.Member;
+
+/**
+ * JpaRepository 의 JPQL 벌크 delete 를 MemberJpaRepository.bulkDelete 로 바꾼다.
+ * 그대로 두면 엔티티 이벤트 없이 지워져서 MemberTombstone 이 남지 않는다.
+ */
+public interface MemberBatchDelete {
+
+    void deleteInBatch(Iterable<Member> members);
+
+    void deleteAllInBatch();
+}
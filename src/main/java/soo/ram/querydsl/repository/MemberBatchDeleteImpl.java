@@ -0,0 +1,30 @@
+package soo.ram.querydsl.repository;
+
+import lombok.RequiredArgsConstructor;
+import soo.ram.querydsl.dto.MemberSearchCondition;
+import soo.ram.querydsl.entity.Member;
+
+import javax.transaction.Transactional;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+@RequiredArgsConstructor
+@Transactional
+public class MemberBatchDeleteImpl implements MemberBatchDelete {
+
+    private final MemberJpaRepository memberJpaRepository;
+
+    @Override
+    public void deleteInBatch(Iterable<Member> members) {
+        List<Long> ids = StreamSupport.stream(members.spliterator(), false)
+                .map(Member::getId)
+                .collect(Collectors.toList());
+        memberJpaRepository.bulkDeleteByIds(ids);
+    }
+
+    @Override
+    public void deleteAllInBatch() {
+        memberJpaRepository.bulkDelete(new MemberSearchCondition());
+    }
+}
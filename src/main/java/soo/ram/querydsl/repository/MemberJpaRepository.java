@@ -1,22 +1,59 @@
 package soo.ram.querydsl.repository;
 
 import com.querydsl.core.BooleanBuilder;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.OrderSpecifier;
 import com.querydsl.core.types.Predicate;
 import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.NumberExpression;
+import com.querydsl.core.types.dsl.StringPath;
+import com.querydsl.jpa.JPAExpressions;
+import com.querydsl.jpa.hibernate.HibernateQuery;
+import com.querydsl.jpa.impl.JPAQuery;
 import com.querydsl.jpa.impl.JPAQueryFactory;
 import lombok.RequiredArgsConstructor;
+import org.hibernate.Session;
+import org.hibernate.StatelessSession;
+import org.hibernate.annotations.QueryHints;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.StringUtils;
+import soo.ram.querydsl.dto.MemberField;
 import soo.ram.querydsl.dto.MemberSearchCondition;
 import soo.ram.querydsl.dto.MemberTeamDto;
 import soo.ram.querydsl.dto.QMemberTeamDto;
+import soo.ram.querydsl.dto.TeamRankOrder;
+import soo.ram.querydsl.dto.UsernameMatch;
+import soo.ram.querydsl.entity.ChangeVersion;
 import soo.ram.querydsl.entity.Member;
 import soo.ram.querydsl.entity.QMember;
 import soo.ram.querydsl.entity.QTeam;
+import soo.ram.querydsl.entity.UserDto;
+import soo.ram.querydsl.support.ParallelRangeScan;
+import soo.ram.querydsl.support.QueryDeadline;
 
 import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import static org.springframework.util.StringUtils.hasText;
 import static soo.ram.querydsl.entity.QMember.*;
@@ -26,19 +63,160 @@ import static soo.ram.querydsl.entity.QTeam.*;
 @RequiredArgsConstructor
 public class MemberJpaRepository {
 
+    static final int IN_CHUNK_SIZE = 512;
+
+    //벌크 update 에서 행마다 change_version_seq 다음 값을 받는다 (엔티티 쓰기는 Member.changeVersion 의 @ColumnTransformer)
+    private static final NumberExpression<Long> NEXT_CHANGE_VERSION =
+            Expressions.numberTemplate(Long.class, "function('nextval', '" + ChangeVersion.SEQUENCE + "')");
+
     private final EntityManager em;
     private final JPAQueryFactory queryFactory;
+    private final UsernameNgramIndex usernameNgramIndex;
+    private final ParallelRangeScan parallelRangeScan;
+    private final ObjectProvider<MemberWriteBehind> memberWriteBehind;
+    private final ChangeVersionTracker changeVersionTracker;
 
     public void save(Member member) {
         em.persist(member);
     }
 
+    /**
+     * querydsl.write-behind.enabled 면 MemberWriteBehind 큐에 넣어 다른 저장과 같이 커밋한다.
+     * 아니면 지금 트랜잭션에 persist 한다. 어느 쪽이든 future 는 커밋된 뒤에 완료된다.
+     */
+    public CompletableFuture<Member> saveAsync(Member member) {
+        MemberWriteBehind writeBehind = memberWriteBehind.getIfAvailable();
+        if (writeBehind != null) {
+            return writeBehind.submit(member);
+        }
+        em.persist(member);
+        CompletableFuture<Member> committed = new CompletableFuture<>();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    committed.complete(member);
+                } else {
+                    committed.completeExceptionally(new IllegalStateException("transaction rolled back"));
+                }
+            }
+        });
+        return committed;
+    }
+
+    /**
+     * 회원을 지운다. 같은 트랜잭션에 MemberTombstone 이 남는다. (ChangeVersionListener)
+     */
+    public void delete(Member member) {
+        em.remove(member);
+    }
+
+    /**
+     * 나이 범위의 회원 나이를 delta 만큼 바꾸는 벌크 update.
+     * 벌크 연산은 엔티티 쓰기를 거치지 않아서 changeVersion 도 같이 set 하고, 끝나면 영속성 컨텍스트를 비운다.
+     */
+    public long bulkAddAge(Integer ageGoe, Integer ageLoe, int delta) {
+        em.flush();
+        changeVersionTracker.beforeWrite(em.unwrap(EventSource.class));
+        long updated = queryFactory
+                .update(member)
+                .set(member.age, member.age.add(delta))
+                .set(member.changeVersion, NEXT_CHANGE_VERSION)
+                .where(ageGoe(ageGoe), ageLoe(ageLoe))
+                .execute();
+        em.clear();
+        return updated;
+    }
+
+    /**
+     * search 와 같은 조건의 회원을 벌크 delete 한다. (조건이 비어 있으면 전체)
+     */
+    public long bulkDelete(MemberSearchCondition condition) {
+        return bulkDeleteByIds(queryFactory
+                .select(member.id)
+                .from(member)
+                .leftJoin(member.team, team)
+                .where(
+                        usernameMatches(condition),
+                        teamNameEq(condition.getTeamName()),
+                        ageGoe(condition.getAgeGoe()),
+                        ageLoe(condition.getAgeLoe()))
+                .fetch());
+    }
+
+    /**
+     * id 의 회원을 벌크 delete 한다.
+     * IN_CHUNK_SIZE 씩 MemberTombstone 을 insert ... select 로 남기고 지운다.
+     */
+    public long bulkDeleteByIds(List<Long> ids) {
+        em.flush();
+        changeVersionTracker.beforeWrite(em.unwrap(EventSource.class));
+        for (int from = 0; from < ids.size(); from += IN_CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(from + IN_CHUNK_SIZE, ids.size()));
+            //querydsl 의 JPAInsertClause 는 insert into 뒤에 별칭을 붙여서 hibernate 가 파싱하지 못한다
+            em.createQuery("insert into MemberTombstone (memberId) select m.id from Member m where m.id in :ids")
+                    .setParameter("ids", chunk)
+                    .executeUpdate();
+            queryFactory
+                    .delete(member)
+                    .where(member.id.in(chunk))
+                    .execute();
+        }
+        em.clear();
+        return ids.size();
+    }
+
     public Optional<Member> findById(Long id) {
         Member findMember = em.find(Member.class, id);
         return Optional.ofNullable(findMember);
 
     }
 
+    /**
+     * 여러 id 를 요청 순서대로 조회한다. (없는 id 는 빠지고, 중복 id 는 한번만)
+     * 영속성 컨텍스트에 있는 회원은 그대로 쓰고, 나머지만 IN_CHUNK_SIZE 씩 나눠서 in 쿼리로 가져온다.
+     * (2차 캐시는 설정하지 않았으므로 보지 않는다)
+     * in 절 파라미터 수는 hibernate.query.in_clause_parameter_padding 으로 2의 거듭제곱으로 맞춰서
+     * 리스트 길이마다 쿼리 플랜이 생기지 않게 한다.
+     */
+    public List<Member> findAllByIds(Collection<Long> ids) {
+        Set<Long> requested = new LinkedHashSet<>(ids);
+        requested.remove(null);
+
+        Map<Long, Member> found = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        EntityManager current = EntityManagerFactoryUtils.getTransactionalEntityManager(em.getEntityManagerFactory());
+        for (Long id : requested) {
+            Member managed = current == null ? null : managedMember(current, id);
+            if (managed != null) {
+                found.put(id, managed);
+            } else {
+                missing.add(id);
+            }
+        }
+
+        for (int from = 0; from < missing.size(); from += IN_CHUNK_SIZE) {
+            List<Long> chunk = missing.subList(from, Math.min(from + IN_CHUNK_SIZE, missing.size()));
+            queryFactory
+                    .selectFrom(member)
+                    .where(member.id.in(chunk))
+                    .fetch()
+                    .forEach(m -> found.put(m.getId(), m));
+        }
+
+        return requested.stream()
+                .map(found::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    //프록시가 아닌, 이미 로딩된 회원만 돌려준다 (없으면 DB 조회 없이 null)
+    private Member managedMember(EntityManager current, Long id) {
+        SessionImplementor session = current.unwrap(SessionImplementor.class);
+        EntityPersister persister = session.getFactory().getMetamodel().entityPersister(Member.class);
+        return (Member) session.getPersistenceContextInternal().getEntity(session.generateEntityKey(id, persister));
+    }
+
     public List<Member> findAll() {
         return em.createQuery("select m from Member m", Member.class)
                 .getResultList();
@@ -50,6 +228,17 @@ public class MemberJpaRepository {
                 .fetch();
     }
 
+    /**
+     * findAll_Querydsl 을 id 구간으로 나눠 여러 커넥션에서 동시에 실행한다. (id 순, 준영속 엔티티)
+     */
+    public List<Member> findAll_QuerydslParallel() {
+        return parallelRangeScan.scan(member.id, (query, range) -> query
+                .selectFrom(member)
+                .where(range)
+                .orderBy(member.id.asc())
+                .fetch());
+    }
+
     public List<Member> findByUsername_Querydsl(String username) {
         return queryFactory
                 .selectFrom(member)
@@ -57,6 +246,50 @@ public class MemberJpaRepository {
                 .fetch();
     }
 
+    /*
+     * 아래 ReadOnly 메서드는 조회만 할 회원용이다. org.hibernate.readOnly 힌트로 읽은 엔티티는
+     * dirty checking 용 스냅샷(loadedState)을 만들지 않아 엔티티당 힙이 줄고, flush 때 비교 대상에서도 빠진다.
+     * 대신 필드를 바꿔도 DB 에 반영되지 않는다.
+     */
+
+    public List<Member> findAllReadOnly() {
+        return em.createQuery("select m from Member m", Member.class)
+                .setHint(QueryHints.READ_ONLY, true)
+                .getResultList();
+    }
+
+    public List<Member> findAll_QuerydslReadOnly() {
+        return readOnly(queryFactory
+                .selectFrom(member))
+                .fetch();
+    }
+
+    public List<Member> findByUsername_QuerydslReadOnly(String username) {
+        return readOnly(queryFactory
+                .selectFrom(member)
+                .where(member.userName.eq(username)))
+                .fetch();
+    }
+
+    /**
+     * 영속성 컨텍스트 없이(StatelessSession) 지금 트랜잭션의 커넥션으로 읽는다.
+     * 엔티티를 관리하지 않아 스냅샷도 EntityEntry 도 없고 flush 비용도 없다. 지연 로딩(team)은 쓸 수 없다.
+     */
+    public List<Member> findAll_QuerydslStateless() {
+        Session session = em.unwrap(Session.class);
+        return session.doReturningWork(connection -> {
+            StatelessSession stateless = session.getSessionFactory().openStatelessSession(connection);
+            try {
+                return new HibernateQuery<Member>(stateless)
+                        .select(member)
+                        .from(member)
+                        .fetch();
+            } finally {
+                stateless.close();
+            }
+        });
+    }
+
 
     public List<Member> findByUserName(String userName) {
         return em.createQuery("select m from Member m where m.userName = :username", Member.class)
@@ -96,7 +329,7 @@ public class MemberJpaRepository {
 
     public List<MemberTeamDto> search(MemberSearchCondition condition) {
 
-        return queryFactory
+        return withDeadline(queryFactory
                 .select(new QMemberTeamDto(
                         member.id.as("memberId"),
                         member.userName,
@@ -107,13 +340,143 @@ public class MemberJpaRepository {
                 .from(member)
                 .leftJoin(member.team, team)
                 .where(
-                        usernameEq(condition.getUsername()),
+                        usernameMatches(condition),
                         teamNameEq(condition.getTeamName()),
                         ageGoe(condition.getAgeGoe()),
-                        ageLoe(condition.getAgeLoe()))
+                        ageLoe(condition.getAgeLoe())))
                 .fetch();
     }
 
+    /**
+     * search 와 같은 조건으로 fields 컬럼만 조회해서 필드 이름 -> 값 으로 돌려준다.
+     * teamName 을 고르지도, 팀 이름으로 거르지도 않으면 team 조인을 하지 않는다.
+     */
+    public List<Map<String, Object>> searchFields(MemberSearchCondition condition, Set<MemberField> fields) {
+        List<MemberField> selected = new ArrayList<>(EnumSet.copyOf(fields));
+        JPAQuery<Tuple> query = queryFactory
+                .select(selected.stream().map(MemberField::getExpression).toArray(Expression[]::new))
+                .from(member);
+        if (hasText(condition.getTeamName()) || selected.stream().anyMatch(MemberField::isTeamJoin)) {
+            query.leftJoin(member.team, team);
+        }
+
+        return withDeadline(query
+                .where(
+                        usernameMatches(condition),
+                        teamNameEq(condition.getTeamName()),
+                        ageGoe(condition.getAgeGoe()),
+                        ageLoe(condition.getAgeLoe())))
+                .fetch().stream()
+                .map(tuple -> {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    selected.forEach(field -> row.put(field.getFieldName(), tuple.get(field.getExpression())));
+                    return row;
+                })
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * search 를 id 구간으로 나눠 여러 커넥션에서 동시에 실행한다. 조건이 없거나 넓은 분석용 스캔에 쓴다. (id 순)
+     */
+    public List<MemberTeamDto> searchParallel(MemberSearchCondition condition) {
+        BooleanExpression[] where = {
+                usernameMatches(condition),
+                teamNameEq(condition.getTeamName()),
+                ageGoe(condition.getAgeGoe()),
+                ageLoe(condition.getAgeLoe())};
+
+        return parallelRangeScan.scan(member.id, (query, range) -> withDeadline(query
+                .select(new QMemberTeamDto(
+                        member.id.as("memberId"),
+                        member.userName,
+                        member.age,
+                        team.id.as("teamId"),
+                        team.name.as("teamName")
+                ))
+                .from(member)
+                .leftJoin(member.team, team)
+                .where(where)
+                .where(range)
+                .orderBy(member.id.asc()))
+                .fetch());
+    }
+
+    /**
+     * select m.userName, (select max(ms.age) from Member ms) from Member m 를
+     * 최대 나이 집계 1번 + 회원 조회 1번으로 나눠서 실행한다.
+     */
+    public List<UserDto> findUserDtoWithMaxAge() {
+        QMember memberSub = new QMember("memberSub");
+        return ScalarSubqueries.withScalar(
+                queryFactory.select(member.userName).from(member),
+                queryFactory.select(memberSub.age.max()).from(memberSub),
+                (userName, maxAge) -> new UserDto(userName, maxAge == null ? 0 : maxAge));
+    }
+
+    /**
+     * select m.userName, (select max(ms.age) from Member ms where ms.team = m.team) from Member m 를
+     * 팀별 최대 나이 group by 1번 + 회원 조회 1번으로 나눠서 실행한다.
+     */
+    public List<UserDto> findUserDtoWithTeamMaxAge() {
+        QMember memberSub = new QMember("memberSub");
+        return ScalarSubqueries.withGroupedScalar(
+                queryFactory.select(member.userName, member.team.id).from(member),
+                row -> row.get(member.team.id),
+                queryFactory.from(memberSub).groupBy(memberSub.team.id),
+                memberSub.team.id,
+                memberSub.age.max(),
+                (row, maxAge) -> new UserDto(row.get(member.userName), maxAge == null ? 0 : maxAge));
+    }
+
+    /**
+     * 팀마다 order 순으로 상위 n명. (팀 id, 순위 순)
+     * JPQL 에는 윈도우 함수가 없어서 "같은 팀에서 나보다 앞선 회원 수 < n" 상관 서브쿼리로 거른다.
+     * 팀 크기의 제곱에 비례하므로 큰 팀이 있으면 MemberSqlRepository.findTopPerTeam(row_number) 를 쓴다.
+     */
+    public List<MemberTeamDto> findTopPerTeam(TeamRankOrder order, int n) {
+        QMember ahead = new QMember("ahead");
+        return withDeadline(queryFactory
+                .select(new QMemberTeamDto(
+                        member.id.as("memberId"),
+                        member.userName,
+                        member.age,
+                        team.id.as("teamId"),
+                        team.name.as("teamName")
+                ))
+                .from(member)
+                .join(member.team, team)
+                .where(JPAExpressions
+                        .select(ahead.count())
+                        .from(ahead)
+                        .where(ahead.team.id.eq(member.team.id), ranksBefore(ahead, member, order))
+                        .lt((long) n))
+                .orderBy(team.id.asc(), rankOrder(order), member.id.asc()))
+                .fetch();
+    }
+
+    //ahead 가 target 보다 순위가 앞서는지 (같은 값이면 id 가 작은 쪽이 앞선다)
+    private static BooleanExpression ranksBefore(QMember ahead, QMember target, TeamRankOrder order) {
+        switch (order) {
+            case OLDEST:
+                return ahead.age.gt(target.age).or(ahead.age.eq(target.age).and(ahead.id.lt(target.id)));
+            case YOUNGEST:
+                return ahead.age.lt(target.age).or(ahead.age.eq(target.age).and(ahead.id.lt(target.id)));
+            default:
+                return ahead.id.gt(target.id);
+        }
+    }
+
+    private static OrderSpecifier<?> rankOrder(TeamRankOrder order) {
+        switch (order) {
+            case OLDEST:
+                return member.age.desc();
+            case YOUNGEST:
+                return member.age.asc();
+            default:
+                return member.id.desc();
+        }
+    }
+
     private BooleanExpression ageLoe(Integer ageLoe) {
         return ageLoe == null ? null : member.age.loe(ageLoe);
     }
@@ -126,8 +489,48 @@ public class MemberJpaRepository {
         return hasText(teamName) ? team.name.eq(teamName) : null;
     }
 
-    private BooleanExpression usernameEq(String username) {
-        return hasText(username) ? member.userName.eq(username) : null;
+    private BooleanExpression usernameMatches(MemberSearchCondition condition) {
+        String username = condition.getUsername();
+        if (!hasText(username)) {
+            return null;
+        }
+        //대소문자 무시는 lower(user_name) 대신 인덱스가 있는 normalizedUserName 으로 비교한다
+        StringPath path = condition.isIgnoreCase() ? member.normalizedUserName : member.userName;
+        String value = condition.isIgnoreCase() ? Member.normalize(username) : username;
+
+        UsernameMatch match = condition.getUsernameMatch();
+        switch (match == null ? UsernameMatch.EXACT : match) {
+            case PREFIX:
+                return path.startsWith(value);
+            case CONTAINS:
+                return usernameContains(path, value);
+            default:
+                return path.eq(value);
+        }
+    }
+
+    //인덱스가 아직 모르는 회원은 change_version 으로 찾는다. 같은 트랜잭션의 쓰기는 이 쿼리의 auto flush 로 보인다
+    private BooleanExpression usernameContains(StringPath path, String value) {
+        Set<Long> candidates = usernameNgramIndex.candidates(value, version -> queryFactory
+                .select(member.id)
+                .from(member)
+                .where(member.changeVersion.gt(version), path.contains(value))
+                .fetch());
+        if (candidates == null) {
+            return path.contains(value);
+        }
+        if (candidates.isEmpty()) {
+            return member.id.isNull(); //후보가 없으면 결과도 없다
+        }
+        return member.id.in(candidates).and(path.contains(value));
+    }
+
+    private static <T> JPAQuery<T> readOnly(JPAQuery<T> query) {
+        return query.setHint(QueryHints.READ_ONLY, true);
+    }
+
+    private <T> JPAQuery<T> withDeadline(JPAQuery<T> query) {
+        return QueryDeadline.apply(query, em);
     }
 
 }
@@ -5,6 +5,6 @@ import soo.ram.querydsl.entity.Member;
 
 import java.util.List;
 
-public interface MemberRepository extends JpaRepository<Member,Long>, MemberRepositoryCustom {
+public interface MemberRepository extends JpaRepository<Member,Long>, MemberRepositoryCustom, MemberBatchDelete {
     List<Member> findByUserName(String username);
 }
@@ -3,6 +3,7 @@ package soo.ram.querydsl.repository;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Repository;
+import soo.ram.querydsl.dto.EstimatedPage;
 import soo.ram.querydsl.dto.MemberSearchCondition;
 import soo.ram.querydsl.dto.MemberTeamDto;
 
@@ -15,4 +16,10 @@ public interface MemberRepositoryCustom {
     Page<MemberTeamDto> searchPageSimple(MemberSearchCondition condition, Pageable pageable);
 
     Page<MemberTeamDto> searchPageComplex(MemberSearchCondition condition, Pageable pageable);
+
+    /**
+     * searchPageComplex 와 같지만 결과가 많을 때는 전체 개수를 추정치로 채운다. (approximate=true)
+     * 추정을 지원하지 않는 구현은 정확한 개수를 돌려준다.
+     */
+    EstimatedPage<MemberTeamDto> searchPageEstimated(MemberSearchCondition condition, Pageable pageable);
 }
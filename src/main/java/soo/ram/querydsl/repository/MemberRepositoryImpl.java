@@ -1,19 +1,35 @@
 package soo.ram.querydsl.repository;
 
 import com.querydsl.core.QueryResults;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.Predicate;
 import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.CaseBuilder;
+import com.querydsl.core.types.dsl.StringPath;
+import com.querydsl.jpa.impl.JPAQuery;
 import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import soo.ram.querydsl.dto.EstimatedPage;
 import soo.ram.querydsl.dto.MemberSearchCondition;
 import soo.ram.querydsl.dto.MemberTeamDto;
 import soo.ram.querydsl.dto.QMemberTeamDto;
+import soo.ram.querydsl.dto.UsernameMatch;
+import soo.ram.querydsl.entity.Member;
 import soo.ram.querydsl.entity.QMember;
 import soo.ram.querydsl.entity.QTeam;
+import soo.ram.querydsl.support.QueryDeadline;
+import soo.ram.querydsl.support.SearchSingleFlight;
 
 import javax.persistence.EntityManager;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static org.springframework.util.StringUtils.hasText;
 import static soo.ram.querydsl.entity.QMember.member;
@@ -21,16 +37,62 @@ import static soo.ram.querydsl.entity.QTeam.team;
 
 public class MemberRepositoryImpl implements MemberRepositoryCustom {
 
+    static final int SAMPLE_WINDOWS = 8;
+
+    private final EntityManager em;
     private final JPAQueryFactory queryFactory;
+    private final UsernameNgramIndex usernameNgramIndex;
+    private final MemberSqlRepository sqlBackend; //querydsl.repository.backend=sql 일 때만
+    private final SearchSingleFlight singleFlight;
+    private final long exactThreshold;
+    private final int sampleSize;
 
-    public MemberRepositoryImpl(EntityManager em) {
+    public MemberRepositoryImpl(EntityManager em,
+                                UsernameNgramIndex usernameNgramIndex,
+                                MemberSqlRepository memberSqlRepository,
+                                SearchSingleFlight singleFlight,
+                                @Value("${querydsl.repository.backend:jpa}") String backend,
+                                @Value("${querydsl.page-total.exact-threshold:10000}") long exactThreshold,
+                                @Value("${querydsl.page-total.sample-size:10000}") int sampleSize) {
+        this.em = em;
         this.queryFactory = new JPAQueryFactory(em);
+        this.usernameNgramIndex = usernameNgramIndex;
+        this.sqlBackend = "sql".equalsIgnoreCase(backend) ? memberSqlRepository : null;
+        this.singleFlight = singleFlight;
+        this.exactThreshold = exactThreshold;
+        this.sampleSize = sampleSize;
     }
 
+    //search/searchPage* 는 같은 조건(과 페이지)으로 동시에 들어온 요청을 DB 실행 한번으로 합친다 (SearchSingleFlight)
     @Override
     public List<MemberTeamDto> search(MemberSearchCondition condition) {
+        return singleFlight.execute("search", String.valueOf(condition), () -> doSearch(condition));
+    }
+
+    @Override
+    public Page<MemberTeamDto> searchPageSimple(MemberSearchCondition condition, Pageable pageable) {
+        return singleFlight.execute("searchPageSimple", condition + " " + pageable,
+                () -> doSearchPageSimple(condition, pageable));
+    }
+
+    @Override
+    public Page<MemberTeamDto> searchPageComplex(MemberSearchCondition condition, Pageable pageable) {
+        return singleFlight.execute("searchPageComplex", condition + " " + pageable,
+                () -> doSearchPageComplex(condition, pageable));
+    }
+
+    @Override
+    public EstimatedPage<MemberTeamDto> searchPageEstimated(MemberSearchCondition condition, Pageable pageable) {
+        return singleFlight.execute("searchPageEstimated", condition + " " + pageable,
+                () -> doSearchPageEstimated(condition, pageable));
+    }
+
+    private List<MemberTeamDto> doSearch(MemberSearchCondition condition) {
+        if (sqlBackend != null) {
+            return sqlBackend.search(condition);
+        }
 
-        return queryFactory
+        return withDeadline(queryFactory
                 .select(new QMemberTeamDto(
                         member.id.as("memberId"),
                         member.userName,
@@ -41,16 +103,18 @@ public class MemberRepositoryImpl implements MemberRepositoryCustom {
                 .from(member)
                 .leftJoin(member.team, team)
                 .where(
-                        usernameEq(condition.getUsername()),
+                        usernameMatches(condition),
                         teamNameEq(condition.getTeamName()),
                         ageGoe(condition.getAgeGoe()),
-                        ageLoe(condition.getAgeLoe()))
+                        ageLoe(condition.getAgeLoe())))
                 .fetch();
     }
 
-    @Override
-    public Page<MemberTeamDto> searchPageSimple(MemberSearchCondition condition, Pageable pageable) {
-        QueryResults<MemberTeamDto> results = queryFactory
+    private Page<MemberTeamDto> doSearchPageSimple(MemberSearchCondition condition, Pageable pageable) {
+        if (sqlBackend != null) {
+            return sqlBackend.searchPageSimple(condition, pageable);
+        }
+        QueryResults<MemberTeamDto> results = withDeadline(queryFactory
                 .select(new QMemberTeamDto(
                         member.id.as("memberId"),
                         member.userName,
@@ -61,12 +125,12 @@ public class MemberRepositoryImpl implements MemberRepositoryCustom {
                 .from(member)
                 .leftJoin(member.team, team)
                 .where(
-                        usernameEq(condition.getUsername()),
+                        usernameMatches(condition),
                         teamNameEq(condition.getTeamName()),
                         ageGoe(condition.getAgeGoe()),
                         ageLoe(condition.getAgeLoe()))
                 .offset(pageable.getOffset())
-                .limit(pageable.getPageSize())
+                .limit(pageable.getPageSize()))
                 .fetchResults();
         // querydsl이 알아서 토탈쿼리 요청함
 
@@ -75,9 +139,32 @@ public class MemberRepositoryImpl implements MemberRepositoryCustom {
         return new PageImpl<>(content, pageable, total);
     }
 
-    @Override
-    public Page<MemberTeamDto> searchPageComplex(MemberSearchCondition condition, Pageable pageable) {
-        List<MemberTeamDto> results = queryFactory
+    private Page<MemberTeamDto> doSearchPageComplex(MemberSearchCondition condition, Pageable pageable) {
+        if (sqlBackend != null) {
+            return sqlBackend.searchPageComplex(condition, pageable);
+        }
+        //total쿼리를 내가 직접 호출함
+        return new PageImpl<>(pageContent(condition, pageable), pageable, count(condition));
+    }
+
+    /**
+     * 조건이 없으면 테이블 통계(H2 row_count_estimate), 있으면 id 구간 표본으로 전체 개수를 추정하고
+     * 추정치가 exact-threshold 보다 작을 때만 정확한 count 쿼리를 실행한다.
+     */
+    private EstimatedPage<MemberTeamDto> doSearchPageEstimated(MemberSearchCondition condition, Pageable pageable) {
+        if (sqlBackend != null) {
+            return sqlBackend.searchPageEstimated(condition, pageable);
+        }
+        List<MemberTeamDto> content = pageContent(condition, pageable);
+        Long estimate = estimateCount(condition);
+        if (estimate == null || estimate < exactThreshold) {
+            return new EstimatedPage<>(content, pageable, count(condition), false);
+        }
+        return new EstimatedPage<>(content, pageable, estimate, true);
+    }
+
+    private List<MemberTeamDto> pageContent(MemberSearchCondition condition, Pageable pageable) {
+        return withDeadline(queryFactory
                 .select(new QMemberTeamDto(
                         member.id.as("memberId"),
                         member.userName,
@@ -87,28 +174,69 @@ public class MemberRepositoryImpl implements MemberRepositoryCustom {
                 ))
                 .from(member)
                 .leftJoin(member.team, team)
-                .where(
-                        usernameEq(condition.getUsername()),
-                        teamNameEq(condition.getTeamName()),
-                        ageGoe(condition.getAgeGoe()),
-                        ageLoe(condition.getAgeLoe()))
+                .where(where(condition))
                 .offset(pageable.getOffset())
-                .limit(pageable.getPageSize())
+                .limit(pageable.getPageSize()))
                 .fetch();
+    }
 
-        long total = queryFactory
+    //토탈쿼리에는 팀 이름으로 거를 때만 조인이 포함된다. 성능 최적화 (to-one left join 은 개수를 바꾸지 않는다)
+    private long count(MemberSearchCondition condition) {
+        JPAQuery<Member> countQuery = queryFactory
                 .select(member)
-                .from(member)
-                .leftJoin(member.team, team)
-                .where(
-                        usernameEq((condition.getUsername())),
-                        teamNameEq(condition.getTeamName()),
-                        ageGoe(condition.getAgeGoe()),
-                        ageLoe(condition.getAgeLoe())
-                ).fetchCount();
-        //total쿼리를 내가 직접 호출함
-        //토탈쿼리에도 조인이 포함되지 않는다. 성능 최적화
-        return new PageImpl<>(results, pageable, total);
+                .from(member);
+        if (hasText(condition.getTeamName())) {
+            countQuery.leftJoin(member.team, team);
+        }
+        return withDeadline(countQuery.where(where(condition))).fetchCount();
+    }
+
+    /**
+     * @return 추정한 전체 개수, 테이블이 작아서 표본이 전체와 같으면 null (정확히 세는 것이 싸다)
+     */
+    private Long estimateCount(MemberSearchCondition condition) {
+        Predicate[] where = where(condition);
+        if (Arrays.stream(where).allMatch(Objects::isNull)) {
+            Number rows = (Number) em.createNativeQuery("select row_count_estimate from information_schema.tables " +
+                    "where table_schema = schema() and table_name = 'MEMBER'")
+                    .getSingleResult();
+            return rows.longValue();
+        }
+
+        Tuple bounds = withDeadline(queryFactory.select(member.id.min(), member.id.max()).from(member)).fetchOne();
+        Long min = bounds == null ? null : bounds.get(member.id.min());
+        Long max = bounds == null ? null : bounds.get(member.id.max());
+        if (min == null || max - min + 1 <= sampleSize) {
+            return null;
+        }
+
+        //id 범위를 SAMPLE_WINDOWS 칸으로 나눠 칸마다 임의 위치의 구간 하나씩 (id 순서와 데이터가 겹쳐 있을 때 치우침을 줄인다)
+        long span = max - min + 1;
+        long width = Math.max(1, sampleSize / SAMPLE_WINDOWS);
+        long stride = span / SAMPLE_WINDOWS;
+        BooleanExpression windows = null;
+        for (int i = 0; i < SAMPLE_WINDOWS; i++) {
+            long start = min + i * stride + ThreadLocalRandom.current().nextLong(Math.max(1, stride - width + 1));
+            BooleanExpression window = member.id.between(start, start + width - 1);
+            windows = windows == null ? window : windows.or(window);
+        }
+
+        JPAQuery<Long> sample = queryFactory
+                .select(new CaseBuilder().when(ExpressionUtils.allOf(where)).then(1L).otherwise(0L).sum())
+                .from(member);
+        if (hasText(condition.getTeamName())) {
+            sample.leftJoin(member.team, team);
+        }
+        Long matched = withDeadline(sample.where(windows)).fetchOne();
+        return matched == null ? 0 : Math.round((double) matched * span / (width * SAMPLE_WINDOWS));
+    }
+
+    private Predicate[] where(MemberSearchCondition condition) {
+        return new Predicate[]{
+                usernameMatches(condition),
+                teamNameEq(condition.getTeamName()),
+                ageGoe(condition.getAgeGoe()),
+                ageLoe(condition.getAgeLoe())};
     }
 
     private BooleanExpression ageLoe(Integer ageLoe) {
@@ -123,7 +251,43 @@ public class MemberRepositoryImpl implements MemberRepositoryCustom {
         return hasText(teamName) ? team.name.eq(teamName) : null;
     }
 
-    private BooleanExpression usernameEq(String username) {
-        return hasText(username) ? member.userName.eq(username) : null;
+    private BooleanExpression usernameMatches(MemberSearchCondition condition) {
+        String username = condition.getUsername();
+        if (!hasText(username)) {
+            return null;
+        }
+        //대소문자 무시는 lower(user_name) 대신 인덱스가 있는 normalizedUserName 으로 비교한다
+        StringPath path = condition.isIgnoreCase() ? member.normalizedUserName : member.userName;
+        String value = condition.isIgnoreCase() ? Member.normalize(username) : username;
+
+        UsernameMatch match = condition.getUsernameMatch();
+        switch (match == null ? UsernameMatch.EXACT : match) {
+            case PREFIX:
+                return path.startsWith(value);
+            case CONTAINS:
+                return usernameContains(path, value);
+            default:
+                return path.eq(value);
+        }
+    }
+
+    //인덱스가 아직 모르는 회원은 change_version 으로 찾는다. 같은 트랜잭션의 쓰기는 이 쿼리의 auto flush 로 보인다
+    private BooleanExpression usernameContains(StringPath path, String value) {
+        Set<Long> candidates = usernameNgramIndex.candidates(value, version -> queryFactory
+                .select(member.id)
+                .from(member)
+                .where(member.changeVersion.gt(version), path.contains(value))
+                .fetch());
+        if (candidates == null) {
+            return path.contains(value);
+        }
+        if (candidates.isEmpty()) {
+            return member.id.isNull(); //후보가 없으면 결과도 없다
+        }
+        return member.id.in(candidates).and(path.contains(value));
+    }
+
+    private <T> JPAQuery<T> withDeadline(JPAQuery<T> query) {
+        return QueryDeadline.apply(query, em);
     }
 }
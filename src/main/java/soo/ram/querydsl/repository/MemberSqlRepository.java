@@ -0,0 +1,363 @@
+package soo.ram.querydsl.repository;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.Projections;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.core.types.dsl.PathBuilder;
+import com.querydsl.core.types.dsl.StringPath;
+import com.querydsl.sql.SQLBindings;
+import com.querydsl.sql.SQLExpressions;
+import com.querydsl.sql.SQLQuery;
+import com.querydsl.sql.SQLQueryFactory;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.event.spi.EventSource;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import soo.ram.querydsl.dto.EstimatedPage;
+import soo.ram.querydsl.dto.MemberChange;
+import soo.ram.querydsl.dto.MemberChanges;
+import soo.ram.querydsl.dto.MemberSearchCondition;
+import soo.ram.querydsl.dto.MemberTeamDto;
+import soo.ram.querydsl.dto.TeamChange;
+import soo.ram.querydsl.dto.TeamRankOrder;
+import soo.ram.querydsl.dto.UsernameMatch;
+import soo.ram.querydsl.entity.Member;
+import soo.ram.querydsl.support.QueryDeadline;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.springframework.util.StringUtils.hasText;
+import static soo.ram.querydsl.sql.SMember.member;
+import static soo.ram.querydsl.sql.SMemberTombstone.memberTombstone;
+import static soo.ram.querydsl.sql.STeam.team;
+
+/**
+ * MemberRepositoryCustom 의 querydsl-sql 구현. (querydsl.repository.backend=sql)
+ * JPQL 변환, 영속성 컨텍스트, 엔티티 hydration 없이 JDBC 결과를 바로 DTO 로 만든다.
+ * 같은 트랜잭션의 커넥션을 쓰지만 Hibernate auto flush 가 일어나지 않아서, 트랜잭션 안이면 쿼리 전에 직접 flush 한다.
+ * <p>
+ * SpringConnectionProvider 는 트랜잭션에 묶인 커넥션만 준다. MemberRepository 의 fragment 메서드나 컨트롤러에서
+ * 부를 때는 트랜잭션이 없으므로 모든 메서드를 읽기 전용 트랜잭션으로 연다. (이미 있으면 거기에 참여)
+ */
+@Repository
+@RequiredArgsConstructor
+@Transactional(readOnly = true)
+public class MemberSqlRepository implements MemberRepositoryCustom {
+
+    private final SQLQueryFactory sqlQueryFactory;
+    private final EntityManager em;
+    private final UsernameNgramIndex usernameNgramIndex;
+    private final ChangeVersionTracker changeVersionTracker;
+
+    @Override
+    public List<MemberTeamDto> search(MemberSearchCondition condition) {
+        flush();
+        return withDeadline(sqlQueryFactory
+                .select(memberTeamDto())
+                .from(member)
+                .leftJoin(team).on(member.teamId.eq(team.teamId))
+                .where(where(condition)))
+                .fetch();
+    }
+
+    /**
+     * count(*) over() 로 내용과 전체 개수를 쿼리 한번에 가져온다.
+     * 페이지가 범위를 넘어 비어 있을 때만 count 쿼리를 따로 실행한다.
+     */
+    @Override
+    public Page<MemberTeamDto> searchPageSimple(MemberSearchCondition condition, Pageable pageable) {
+        flush();
+        Expression<Long> total = SQLExpressions.count().over();
+        List<Tuple> rows = withDeadline(sqlQueryFactory
+                .select(memberTeamDto(), total)
+                .from(member)
+                .leftJoin(team).on(member.teamId.eq(team.teamId))
+                .where(where(condition))
+                .offset(pageable.getOffset())
+                .limit(pageable.getPageSize()))
+                .fetch();
+
+        List<MemberTeamDto> content = rows.stream()
+                .map(row -> row.get(0, MemberTeamDto.class))
+                .collect(Collectors.toList());
+        long count = rows.isEmpty() ? count(condition) : rows.get(0).get(1, Long.class);
+        return new PageImpl<>(content, pageable, count);
+    }
+
+    @Override
+    public Page<MemberTeamDto> searchPageComplex(MemberSearchCondition condition, Pageable pageable) {
+        flush();
+        List<MemberTeamDto> content = withDeadline(sqlQueryFactory
+                .select(memberTeamDto())
+                .from(member)
+                .leftJoin(team).on(member.teamId.eq(team.teamId))
+                .where(where(condition))
+                .offset(pageable.getOffset())
+                .limit(pageable.getPageSize()))
+                .fetch();
+        return new PageImpl<>(content, pageable, count(condition));
+    }
+
+    //추정은 JPA 구현(MemberRepositoryImpl)에만 있고 여기서는 정확한 개수를 쓴다
+    @Override
+    public EstimatedPage<MemberTeamDto> searchPageEstimated(MemberSearchCondition condition, Pageable pageable) {
+        Page<MemberTeamDto> page = searchPageComplex(condition, pageable);
+        return new EstimatedPage<>(page.getContent(), pageable, page.getTotalElements(), false);
+    }
+
+    /**
+     * offset 대신 마지막으로 받은 member_id 다음부터 size 개를 가져오는 seek 페이징. (member_id 순)
+     *
+     * @param afterMemberId 이전 페이지의 마지막 member_id, 첫 페이지는 null
+     */
+    public List<MemberTeamDto> searchAfter(MemberSearchCondition condition, Long afterMemberId, int size) {
+        flush();
+        return withDeadline(searchAfterQuery(memberTeamDto(), condition, afterMemberId, size)).fetch();
+    }
+
+    /**
+     * searchAfter 와 같은 SQL 과 바인딩 값. 실행하지 않고 만들기만 한다. (MemberReactiveRepository 가 R2DBC 로 실행)
+     * 컬럼 순서: member_id, user_name, age, team_id, name
+     * 실행하지 않으니 트랜잭션(커넥션)을 잡지 않는다.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public SQLBindings searchAfterSql(MemberSearchCondition condition, Long afterMemberId, int size) {
+        return searchAfterQuery(Projections.tuple(member.memberId, member.userName, member.age, team.teamId, team.name),
+                condition, afterMemberId, size)
+                .getSQL();
+    }
+
+    private <T> SQLQuery<T> searchAfterQuery(Expression<T> projection, MemberSearchCondition condition,
+                                             Long afterMemberId, int size) {
+        return sqlQueryFactory
+                .select(projection)
+                .from(member)
+                .leftJoin(team).on(member.teamId.eq(team.teamId))
+                .where(where(condition))
+                .where(afterMemberId == null ? null : member.memberId.gt(afterMemberId))
+                .orderBy(member.memberId.asc())
+                .limit(size);
+    }
+
+    /**
+     * 팀마다 order 순으로 상위 n명을 쿼리 한번으로 가져온다. (팀 id, 순위 순)
+     * <pre>
+     * select r.member_id, r.user_name, r.age, t.team_id, t.name
+     * from (select m.*, row_number() over (partition by m.team_id order by ..., m.member_id) rn
+     *       from member m where m.team_id is not null) r
+     * join team t on t.team_id = r.team_id
+     * where r.rn <= n
+     * </pre>
+     * 팀이 없는 회원은 제외한다.
+     */
+    public List<MemberTeamDto> findTopPerTeam(TeamRankOrder order, int n) {
+        flush();
+        PathBuilder<Tuple> ranked = new PathBuilder<>(Tuple.class, "ranked");
+        NumberPath<Long> memberId = Expressions.numberPath(Long.class, ranked, "member_id");
+        NumberPath<Long> teamId = Expressions.numberPath(Long.class, ranked, "team_id");
+        NumberPath<Long> rn = Expressions.numberPath(Long.class, ranked, "rn");
+
+        SQLQuery<Tuple> rows = SQLExpressions
+                .select(ExpressionUtils.as(member.memberId, "member_id"),
+                        ExpressionUtils.as(member.userName, "user_name"),
+                        ExpressionUtils.as(member.age, "age"),
+                        ExpressionUtils.as(member.teamId, "team_id"),
+                        SQLExpressions.rowNumber().over()
+                                .partitionBy(member.teamId)
+                                .orderBy(rankOrder(order), member.memberId.asc())
+                                .as(rn))
+                .from(member)
+                .where(member.teamId.isNotNull());
+
+        return withDeadline(sqlQueryFactory
+                .select(Projections.constructor(MemberTeamDto.class,
+                        memberId,
+                        Expressions.stringPath(ranked, "user_name"),
+                        Expressions.numberPath(Integer.class, ranked, "age"),
+                        team.teamId,
+                        team.name))
+                .from(rows, ranked)
+                .join(team).on(team.teamId.eq(teamId))
+                .where(rn.loe((long) n))
+                .orderBy(team.teamId.asc(), rn.asc()))
+                .fetch();
+    }
+
+    /**
+     * change_version 이 since 보다 큰 회원, 삭제된 회원(tombstone), 팀을 버전 순으로 size 개까지.
+     * 세 테이블 모두 change_version 인덱스를 타는 keyset 조회를 하고(각각 size + 1개), 버전 순으로 합쳐 앞 size 개만 남긴다.
+     * 버전은 모두 change_version_seq 에서 나와서 겹치지 않으므로 마지막 버전이 다음 since 가 된다.
+     * <p>
+     * 버전은 커밋이 아니라 쓸 때 매겨지므로, 아직 커밋되지 않은 쓰기가 받을 수 있는 버전부터는 돌려주지 않는다.
+     * (ChangeVersionTracker.safeVersion) 먼저 버전을 받은 트랜잭션이 늦게 커밋되더라도 next 가 그 버전을 넘지 않는다.
+     */
+    public MemberChanges findChanges(long since, int size) {
+        flush();
+        long safe = changeVersionTracker.safeVersion(em.unwrap(EventSource.class));
+        List<MemberChange> members = withDeadline(sqlQueryFactory
+                .select(Projections.constructor(MemberChange.class,
+                        member.changeVersion, member.memberId, member.userName, member.age, team.teamId, team.name))
+                .from(member)
+                .leftJoin(team).on(member.teamId.eq(team.teamId))
+                .where(member.changeVersion.gt(since), member.changeVersion.loe(safe))
+                .orderBy(member.changeVersion.asc())
+                .limit(size + 1))
+                .fetch();
+        List<MemberChange> deleted = withDeadline(sqlQueryFactory
+                .select(Projections.constructor(MemberChange.class, memberTombstone.changeVersion, memberTombstone.memberId))
+                .from(memberTombstone)
+                .where(memberTombstone.changeVersion.gt(since), memberTombstone.changeVersion.loe(safe))
+                .orderBy(memberTombstone.changeVersion.asc())
+                .limit(size + 1))
+                .fetch();
+        List<TeamChange> teams = withDeadline(sqlQueryFactory
+                .select(Projections.constructor(TeamChange.class, team.changeVersion, team.teamId, team.name))
+                .from(team)
+                .where(team.changeVersion.gt(since), team.changeVersion.loe(safe))
+                .orderBy(team.changeVersion.asc())
+                .limit(size + 1))
+                .fetch();
+
+        //세 목록을 합친 것 중 size 번째로 작은 버전까지만 돌려준다
+        List<Long> versions = new ArrayList<>();
+        members.forEach(change -> versions.add(change.getVersion()));
+        deleted.forEach(change -> versions.add(change.getVersion()));
+        teams.forEach(change -> versions.add(change.getVersion()));
+        if (versions.isEmpty()) {
+            return new MemberChanges(Collections.emptyList(), Collections.emptyList(), since, false);
+        }
+        Collections.sort(versions);
+        long next = versions.get(Math.min(size, versions.size()) - 1);
+
+        List<MemberChange> memberChanges = Stream.concat(members.stream(), deleted.stream())
+                .filter(change -> change.getVersion() <= next)
+                .sorted(Comparator.comparingLong(MemberChange::getVersion))
+                .collect(Collectors.toList());
+        List<TeamChange> teamChanges = teams.stream()
+                .filter(change -> change.getVersion() <= next)
+                .collect(Collectors.toList());
+        return new MemberChanges(memberChanges, teamChanges, next, versions.size() > size);
+    }
+
+    /**
+     * 회원, 팀, 삭제 중 가장 큰 change_version. 커밋된 쓰기가 있으면 커진다. (SearchPageCacheFilter 의 캐시 key)
+     * 세 max 모두 change_version 인덱스 끝만 읽는다.
+     */
+    public long currentChangeVersion() {
+        return withDeadline(sqlQueryFactory
+                .select(Expressions.numberTemplate(Long.class, "greatest({0}, {1}, {2})",
+                        maxChangeVersion(SQLExpressions.select(member.changeVersion.max()).from(member)),
+                        maxChangeVersion(SQLExpressions.select(team.changeVersion.max()).from(team)),
+                        maxChangeVersion(SQLExpressions.select(memberTombstone.changeVersion.max()).from(memberTombstone)))))
+                .fetchOne();
+    }
+
+    private static Expression<Long> maxChangeVersion(SQLQuery<Long> max) {
+        return Expressions.numberTemplate(Long.class, "coalesce({0}, 0)", max);
+    }
+
+    private static OrderSpecifier<?> rankOrder(TeamRankOrder order) {
+        switch (order) {
+            case OLDEST:
+                return member.age.desc();
+            case YOUNGEST:
+                return member.age.asc();
+            default:
+                return member.memberId.desc();
+        }
+    }
+
+    //팀 이름으로 거를 때만 조인한다
+    private long count(MemberSearchCondition condition) {
+        SQLQuery<Long> query = sqlQueryFactory
+                .select(member.memberId.count())
+                .from(member);
+        if (hasText(condition.getTeamName())) {
+            query.leftJoin(team).on(member.teamId.eq(team.teamId));
+        }
+        Long count = withDeadline(query.where(where(condition))).fetchOne();
+        return count == null ? 0 : count;
+    }
+
+    private static Expression<MemberTeamDto> memberTeamDto() {
+        return Projections.constructor(MemberTeamDto.class,
+                member.memberId, member.userName, member.age, team.teamId, team.name);
+    }
+
+    private BooleanExpression[] where(MemberSearchCondition condition) {
+        return new BooleanExpression[]{
+                usernameMatches(condition),
+                teamNameEq(condition.getTeamName()),
+                ageGoe(condition.getAgeGoe()),
+                ageLoe(condition.getAgeLoe())};
+    }
+
+    private BooleanExpression ageLoe(Integer ageLoe) {
+        return ageLoe == null ? null : member.age.loe(ageLoe);
+    }
+
+    private BooleanExpression ageGoe(Integer ageGoe) {
+        return ageGoe == null ? null : member.age.goe(ageGoe);
+    }
+
+    private BooleanExpression teamNameEq(String teamName) {
+        return hasText(teamName) ? team.name.eq(teamName) : null;
+    }
+
+    private BooleanExpression usernameMatches(MemberSearchCondition condition) {
+        String username = condition.getUsername();
+        if (!hasText(username)) {
+            return null;
+        }
+        StringPath path = condition.isIgnoreCase() ? member.normalizedUserName : member.userName;
+        String value = condition.isIgnoreCase() ? Member.normalize(username) : username;
+
+        UsernameMatch match = condition.getUsernameMatch();
+        switch (match == null ? UsernameMatch.EXACT : match) {
+            case PREFIX:
+                return path.startsWith(value);
+            case CONTAINS:
+                //인덱스가 아직 모르는 회원은 change_version 으로 찾는다 (쿼리 전에 flush 했다)
+                Set<Long> candidates = usernameNgramIndex.candidates(value, version -> sqlQueryFactory
+                        .select(member.memberId)
+                        .from(member)
+                        .where(member.changeVersion.gt(version), path.contains(value))
+                        .fetch());
+                if (candidates == null) {
+                    return path.contains(value);
+                }
+                if (candidates.isEmpty()) {
+                    return member.memberId.isNull(); //후보가 없으면 결과도 없다
+                }
+                return member.memberId.in(candidates).and(path.contains(value));
+            default:
+                return path.eq(value);
+        }
+    }
+
+    private void flush() {
+        if (em.isJoinedToTransaction()) {
+            em.flush();
+        }
+    }
+
+    private static <T> SQLQuery<T> withDeadline(SQLQuery<T> query) {
+        return QueryDeadline.apply(query);
+    }
+}
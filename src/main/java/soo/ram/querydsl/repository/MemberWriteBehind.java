@@ -0,0 +1,167 @@
+package soo.ram.querydsl.repository;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import soo.ram.querydsl.entity.Member;
+
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 회원 저장을 모아서 한 트랜잭션(JDBC 배치 insert)으로 커밋하는 write-behind.
+ * submit 은 크기가 정해진 큐에 넣기만 하고, writer 스레드가 최대 maxBatchSize 개 또는 첫 요청 뒤 linger 동안 모인 만큼
+ * persist 해서 커밋한다. 돌려준 future 는 커밋이 끝나야 완료된다.
+ * 배치 커밋이 실패하면 그 배치를 한 건씩 따로 커밋해서 저장할 수 없는 회원의 future 만 실패시킨다.
+ * 큐가 가득 차면 offerTimeout 까지 기다렸다가 RejectedExecutionException 을 던진다. (backpressure)
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "querydsl.write-behind.enabled", havingValue = "true")
+public class MemberWriteBehind {
+
+    private final EntityManager em;
+    private final TransactionTemplate tx;
+    private final DistributionSummary batchSizes;
+
+    private final BlockingQueue<PendingSave> queue;
+    private final int maxBatchSize;
+    private final Duration linger;
+    private final Duration offerTimeout;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public MemberWriteBehind(EntityManager em,
+                             PlatformTransactionManager transactionManager,
+                             MeterRegistry meterRegistry,
+                             @Value("${querydsl.write-behind.queue-capacity:10000}") int queueCapacity,
+                             @Value("${querydsl.write-behind.max-batch-size:1000}") int maxBatchSize,
+                             @Value("${querydsl.write-behind.linger:5ms}") Duration linger,
+                             @Value("${querydsl.write-behind.offer-timeout:1s}") Duration offerTimeout) {
+        this.em = em;
+        this.tx = new TransactionTemplate(transactionManager);
+        tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.batchSizes = meterRegistry.summary("member.write-behind.batch");
+
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.linger = linger;
+        this.offerTimeout = offerTimeout;
+
+        this.writer = new Thread(this::drain, "member-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return 커밋되면 id 가 채워진 member 로 완료되는 future
+     * @throws RejectedExecutionException offerTimeout 동안 큐에 자리가 나지 않음
+     */
+    public CompletableFuture<Member> submit(Member member) {
+        if (!running) {
+            throw new RejectedExecutionException("write-behind 가 종료되었습니다");
+        }
+        PendingSave pending = new PendingSave(member);
+        try {
+            if (!queue.offer(pending, offerTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                throw new RejectedExecutionException("write-behind 큐가 가득 찼습니다: " + queue.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("write-behind 큐를 기다리다 중단되었습니다", e);
+        }
+        return pending.future;
+    }
+
+    private void drain() {
+        List<PendingSave> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (running || !queue.isEmpty()) {
+                PendingSave first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long lingerUntil = System.nanoTime() + linger.toNanos();
+                while (batch.size() < maxBatchSize) {
+                    long wait = lingerUntil - System.nanoTime();
+                    PendingSave next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batch.addAll(queue);
+            batch.forEach(pending -> pending.future.completeExceptionally(e));
+        }
+    }
+
+    private void write(List<PendingSave> batch) {
+        try {
+            persist(batch);
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                log.warn("write-behind save of {} failed", batch.get(0).member, e);
+                batch.get(0).future.completeExceptionally(e);
+                return;
+            }
+            //어느 회원 때문인지 모르므로 한 건씩 다시 커밋한다
+            log.warn("write-behind batch of {} members failed, retrying one by one", batch.size(), e);
+            batch.forEach(pending -> write(Collections.singletonList(pending)));
+            return;
+        }
+        batchSizes.record(batch.size());
+        batch.forEach(pending -> pending.future.complete(pending.member));
+    }
+
+    private void persist(List<PendingSave> batch) {
+        tx.executeWithoutResult(status -> {
+            batch.forEach(pending -> {
+                pending.member.setId(pending.id); //실패한 배치에서 받은 id 는 롤백됐다
+                em.persist(pending.member);
+            });
+            em.flush();
+            em.clear();
+        });
+    }
+
+    /**
+     * 새 요청은 받지 않고, 큐에 남은 것은 모두 커밋한 뒤 끝낸다.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(30));
+    }
+
+    private static class PendingSave {
+        private final Member member;
+        private final Long id;
+        private final CompletableFuture<Member> future = new CompletableFuture<>();
+
+        PendingSave(Member member) {
+            this.member = member;
+            this.id = member.getId();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package soo.ram.querydsl.repository;
+
+import com.querydsl.core.types.Expression;
+import com.querydsl.jpa.JPQLQuery;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.querydsl.core.group.GroupBy.groupBy;
+
+/**
+ * select 절 스칼라 서브쿼리를 행마다 실행하지 않도록 바꿔주는 도우미.
+ * <pre>
+ * select m.userName, (select max(ms.age) from Member ms) from Member m
+ *   -> select max(ms.age) from Member ms  (1번)
+ *      select m.userName from Member m     (결과 행마다 위 값을 붙인다)
+ *
+ * select m.userName, (select max(ms.age) from Member ms where ms.team = m.team) from Member m
+ *   -> select ms.team.id, max(ms.age) from Member ms group by ms.team.id  (1번, 팀별 미리 집계)
+ *      select m.userName, m.team.id from Member m                       (team id 로 붙인다)
+ * </pre>
+ */
+public final class ScalarSubqueries {
+
+    private ScalarSubqueries() {
+    }
+
+    /**
+     * 상관관계가 없는 스칼라 서브쿼리를 한번만 계산해서 모든 행에 재사용한다.
+     */
+    public static <T, S, R> List<R> withScalar(JPQLQuery<T> rows,
+                                               JPQLQuery<S> scalar,
+                                               BiFunction<? super T, ? super S, R> combiner) {
+        S value = scalar.fetchOne();
+        return rows.fetch().stream()
+                .map(row -> combiner.apply(row, value))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * key 로 상관된 스칼라 서브쿼리를 group by 집계 한번으로 미리 계산해서 key 로 붙인다.
+     * grouped 는 select 없이 from/where/groupBy(key) 까지만 만든 쿼리를 넘긴다.
+     * key 가 null 인 행은 상관 서브쿼리와 같이 null 을 받는다.
+     */
+    public static <T, K, S, R> List<R> withGroupedScalar(JPQLQuery<T> rows,
+                                                         Function<? super T, K> rowKey,
+                                                         JPQLQuery<?> grouped,
+                                                         Expression<K> key,
+                                                         Expression<S> value,
+                                                         BiFunction<? super T, ? super S, R> combiner) {
+        Map<K, S> values = grouped.transform(groupBy(key).as(value));
+        return rows.fetch().stream()
+                .map(row -> {
+                    K k = rowKey.apply(row);
+                    return combiner.apply(row, k == null ? null : values.get(k));
+                })
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,273 @@
+package soo.ram.querydsl.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.event.spi.EventSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.metrics.ApplicationStartup;
+import org.springframework.core.metrics.StartupStep;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Member.userName 부분 문자열 검색용 trigram 인덱스 (메모리).
+ * 후보 id 를 좁히는 용도라 실제보다 많이 돌려주는 것은 괜찮고, 최종 판정은 DB 쿼리의 like 가 한다.
+ * <p>
+ * 인덱스는 커밋된 DB 의 사본이다. 기동할 때 전체를 읽고, 그 뒤로는 refresh 마다 change_version 이
+ * 반영한 버전(version)보다 큰 회원과 tombstone 을 읽어 따라간다. (ChangeVersionTracker.safeVersion 까지)
+ * 그래서 벌크 연산, CSV 적재, 다른 인스턴스의 쓰기도 반영되고,
+ * 아직 반영하지 못한 회원은 candidates 를 부르는 쪽이 change_version > version 으로 DB 에서 직접 찾는다.
+ * <p>
+ * 회원이 max-members 를 넘으면 인덱스를 비우고 쓰지 않는다. (candidates 가 null, 호출하는 쪽은 like 로만 검색)
+ */
+@Slf4j
+@Component
+public class UsernameNgramIndex {
+
+    static final int N = 3;
+
+    private final Supplier<EntityManagerFactory> emf;
+    private final ChangeVersionTracker changeVersionTracker;
+    private final ApplicationStartup applicationStartup;
+    private final int maxMembers;
+    private final int maxCandidates;
+    private final long refreshNanos;
+
+    private final Map<String, Set<Long>> postings = new ConcurrentHashMap<>();
+    private final Map<Long, Set<String>> names = new ConcurrentHashMap<>(); //id 별로 인덱스에 들어간 이름들
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private volatile long version = -1; //이 버전까지의 커밋된 쓰기를 반영했다, 적재 전이면 -1
+    private volatile long refreshedAt;
+    private volatile boolean overflow;
+
+    @Autowired
+    public UsernameNgramIndex(ObjectProvider<EntityManagerFactory> emf,
+                              ChangeVersionTracker changeVersionTracker,
+                              ApplicationStartup applicationStartup,
+                              @Value("${querydsl.username-index.max-members:1000000}") int maxMembers,
+                              @Value("${querydsl.username-index.max-candidates:1000}") int maxCandidates,
+                              @Value("${querydsl.username-index.refresh:1s}") Duration refresh) {
+        this(emf::getObject, changeVersionTracker, applicationStartup, maxMembers, maxCandidates, refresh);
+    }
+
+    /**
+     * @param emf                  인덱스할 회원 테이블이 있는 DB
+     * @param changeVersionTracker 그 DB 의 쓰기를 추적하는 tracker
+     */
+    public UsernameNgramIndex(Supplier<EntityManagerFactory> emf,
+                              ChangeVersionTracker changeVersionTracker,
+                              ApplicationStartup applicationStartup,
+                              int maxMembers, int maxCandidates, Duration refresh) {
+        this.emf = emf;
+        this.changeVersionTracker = changeVersionTracker;
+        this.applicationStartup = applicationStartup;
+        this.maxMembers = maxMembers;
+        this.maxCandidates = maxCandidates;
+        this.refreshNanos = refresh.toNanos();
+    }
+
+    /**
+     * @param changedSince 인자로 받은 버전보다 change_version 이 큰 회원 중 username 을 포함하는 id.
+     *                     인덱스가 아직 모르는 회원이라 부르는 쪽의 트랜잭션(커넥션)에서 찾는다.
+     * @return username 을 포함할 수 있는 회원 id,
+     * 인덱스를 쓸 수 없으면(짧은 검색어, 후보 과다, 적재 전, max-members 초과) null
+     */
+    public Set<Long> candidates(String username, LongFunction<? extends Collection<Long>> changedSince) {
+        if (!usable(username)) {
+            return null;
+        }
+        refreshIfDue();
+        //postings 보다 먼저 읽는다. 그 사이 반영된 쓰기는 changedSince 에서 한번 더 나올 뿐이다
+        long indexed = version;
+        Set<Long> result = lookup(username);
+        if (result == null) {
+            return null;
+        }
+        result.addAll(changedSince.apply(indexed));
+        return result.size() > maxCandidates ? null : result;
+    }
+
+    /**
+     * candidates 가 후보를 좁혀줄지. 검색 전에 비용을 가늠하는 용도라 DB 는 읽지 않는다.
+     * (아직 반영하지 못한 회원까지 더하면 candidates 는 null 이 될 수도 있다)
+     */
+    public boolean narrows(String username) {
+        return usable(username) && lookup(username) != null;
+    }
+
+    private boolean usable(String username) {
+        return version >= 0 && !overflow && username != null && username.length() >= N;
+    }
+
+    //인덱스에 있는 회원 중 username 을 포함할 수 있는 id, maxCandidates 를 넘으면 null
+    private Set<Long> lookup(String username) {
+        List<Set<Long>> lists = grams(username).stream()
+                .map(gram -> postings.getOrDefault(gram, Collections.emptySet()))
+                .sorted(Comparator.comparingInt(Set::size))
+                .collect(Collectors.toList());
+
+        Set<Long> result = new HashSet<>(lists.get(0));
+        for (int i = 1; i < lists.size() && !result.isEmpty(); i++) {
+            result.retainAll(lists.get(i));
+        }
+        return overflow || result.size() > maxCandidates ? null : result;
+    }
+
+    /**
+     * 전체 회원을 읽어서 인덱스를 만든다.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        StartupStep step = applicationStartup.start("querydsl.username-index.rebuild");
+        refreshLock.lock();
+        try {
+            read((em, safe) -> {
+                em.createQuery("select m.id, m.userName from Member m", Object[].class)
+                        .getResultStream()
+                        .forEach(row -> add((Long) row[0], (String) row[1]));
+                version = safe;
+            });
+        } finally {
+            refreshLock.unlock();
+            step.tag("members", String.valueOf(names.size())).end();
+        }
+        log.info("username ngram index: {} members, {} grams in {} ms",
+                names.size(), postings.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * version 이후 커밋된 회원 쓰기와 삭제를 반영한다.
+     */
+    public void refresh() {
+        refreshLock.lock();
+        try {
+            long from = version;
+            read((em, safe) -> {
+                em.createQuery("select m.id, m.userName from Member m " +
+                        "where m.changeVersion > :from and m.changeVersion <= :to", Object[].class)
+                        .setParameter("from", from)
+                        .setParameter("to", safe)
+                        .getResultStream()
+                        .forEach(row -> {
+                            add((Long) row[0], (String) row[1]);
+                            retain((Long) row[0], (String) row[1]);
+                        });
+                em.createQuery("select t.memberId from MemberTombstone t " +
+                        "where t.changeVersion > :from and t.changeVersion <= :to", Long.class)
+                        .setParameter("from", from)
+                        .setParameter("to", safe)
+                        .getResultStream()
+                        .forEach(id -> retain(id, null));
+                version = safe;
+            });
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    //검색 스레드 하나만 따라가고 나머지는 기다리지 않는다
+    private void refreshIfDue() {
+        if (System.nanoTime() - refreshedAt < refreshNanos || !refreshLock.tryLock()) {
+            return;
+        }
+        try {
+            refresh();
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private void read(ReadWork work) {
+        if (overflow) {
+            return;
+        }
+        EntityManager em = emf.get().createEntityManager();
+        try {
+            em.getTransaction().begin();
+            long safe = changeVersionTracker.safeVersion(em.unwrap(EventSource.class));
+            work.read(em, safe);
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+            refreshedAt = System.nanoTime();
+        }
+    }
+
+    private void add(Long id, String username) {
+        if (overflow || id == null || username == null) {
+            return;
+        }
+        if (!names.computeIfAbsent(id, key -> ConcurrentHashMap.newKeySet()).add(username)) {
+            return;
+        }
+        for (String gram : grams(username)) {
+            postings.computeIfAbsent(gram, key -> ConcurrentHashMap.newKeySet()).add(id);
+        }
+        if (names.size() > maxMembers) {
+            overflow = true;
+            names.clear();
+            postings.clear();
+            log.warn("username ngram index: more than {} members, CONTAINS search falls back to like", maxMembers);
+        }
+    }
+
+    /**
+     * id 에 대해 username 에 없는 gram 을 지운다. username 이 null 이면 전부 지운다.
+     */
+    private void retain(Long id, String username) {
+        Set<String> indexed = username == null ? names.remove(id) : names.get(id);
+        if (indexed == null) {
+            return;
+        }
+        Set<String> keep = username == null ? Collections.emptySet() : grams(username);
+        for (String name : indexed) {
+            if (name.equals(username)) {
+                continue;
+            }
+            for (String gram : grams(name)) {
+                Set<Long> ids = postings.get(gram);
+                if (ids != null && !keep.contains(gram)) {
+                    ids.remove(id);
+                }
+            }
+            indexed.remove(name);
+        }
+    }
+
+    static Set<String> grams(String value) {
+        String normalized = value.toLowerCase(Locale.ROOT);
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + N <= normalized.length(); i++) {
+            grams.add(normalized.substring(i, i + N));
+        }
+        return grams;
+    }
+
+    @FunctionalInterface
+    private interface ReadWork {
+        void read(EntityManager em, long safeVersion);
+    }
+}
@@ -0,0 +1,57 @@
+package soo.ram.querydsl.shard;
+
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.Getter;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.support.TransactionTemplate;
+import soo.ram.querydsl.repository.UsernameNgramIndex;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.function.Supplier;
+
+/**
+ * 샤드 하나 (데이터소스 + EntityManagerFactory + 트랜잭션 + 회원 이름 trigram 인덱스).
+ * 샤드의 id 는 기본 DB 의 id 와 겹치므로 인덱스도 샤드마다 따로 둔다.
+ */
+@Getter
+public class MemberShard {
+
+    private final int index;
+    private final HikariDataSource dataSource;
+    private final EntityManagerFactory emf;
+    private final EntityManager em;
+    private final JPAQueryFactory queryFactory;
+    private final TransactionTemplate tx;
+    private final TransactionTemplate readOnlyTx;
+    private final UsernameNgramIndex usernameIndex;
+
+    public MemberShard(int index, HikariDataSource dataSource, EntityManagerFactory emf, UsernameNgramIndex usernameIndex) {
+        this.index = index;
+        this.dataSource = dataSource;
+        this.emf = emf;
+        this.usernameIndex = usernameIndex;
+        this.em = SharedEntityManagerCreator.createSharedEntityManager(emf);
+        this.queryFactory = new JPAQueryFactory(em);
+
+        JpaTransactionManager transactionManager = new JpaTransactionManager(emf);
+        this.tx = new TransactionTemplate(transactionManager);
+        this.readOnlyTx = new TransactionTemplate(transactionManager);
+        this.readOnlyTx.setReadOnly(true);
+    }
+
+    public <T> T write(Supplier<T> work) {
+        return tx.execute(status -> work.get());
+    }
+
+    public <T> T read(Supplier<T> work) {
+        return readOnlyTx.execute(status -> work.get());
+    }
+
+    void close() {
+        emf.close();
+        dataSource.close();
+    }
+}
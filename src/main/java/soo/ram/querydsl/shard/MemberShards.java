@@ -0,0 +1,70 @@
+package soo.ram.querydsl.shard;
+
+import org.springframework.beans.factory.DisposableBean;
+import soo.ram.querydsl.entity.Member;
+import soo.ram.querydsl.entity.Team;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 회원 샤드 목록과 라우팅 규칙.
+ * 샤드마다 hibernate_sequence 를 (샤드번호 + 1) 부터 샤드 수 만큼 증가시키므로
+ * id 만 보고 어느 샤드의 행인지 알 수 있다. (shardOf)
+ * 회원은 팀과 같은 샤드에 둔다. (team_id 로 파티셔닝)
+ */
+public class MemberShards implements DisposableBean {
+
+    private final List<MemberShard> shards;
+
+    public MemberShards(List<MemberShard> shards) {
+        this.shards = Collections.unmodifiableList(shards);
+    }
+
+    public List<MemberShard> all() {
+        return shards;
+    }
+
+    public int size() {
+        return shards.size();
+    }
+
+    /**
+     * id 를 만든 샤드
+     */
+    public MemberShard shardOf(Long id) {
+        return shards.get((int) Math.floorMod(id - 1, (long) shards.size()));
+    }
+
+    /**
+     * 새 팀이 들어갈 샤드. 이름으로 나눠서 같은 이름이면 같은 샤드로 간다.
+     */
+    public MemberShard shardFor(Team team) {
+        if (team.getId() != null) {
+            return shardOf(team.getId());
+        }
+        return shards.get(Math.floorMod(String.valueOf(team.getName()).hashCode(), shards.size()));
+    }
+
+    /**
+     * 회원은 팀의 샤드로 간다. 팀이 없으면 이름으로 나눈다.
+     */
+    public MemberShard shardFor(Member member) {
+        if (member.getId() != null) {
+            return shardOf(member.getId());
+        }
+        Team team = member.getTeam();
+        if (team != null) {
+            if (team.getId() == null) {
+                throw new IllegalStateException("팀을 먼저 저장해야 샤드를 정할 수 있습니다: " + team.getName());
+            }
+            return shardOf(team.getId());
+        }
+        return shards.get(Math.floorMod(String.valueOf(member.getUserName()).hashCode(), shards.size()));
+    }
+
+    @Override
+    public void destroy() {
+        shards.forEach(MemberShard::close);
+    }
+}
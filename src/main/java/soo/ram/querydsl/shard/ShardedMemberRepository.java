@@ -0,0 +1,382 @@
+package soo.ram.querydsl.shard;
+
+import com.querydsl.core.types.Order;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.ComparableExpressionBase;
+import com.querydsl.core.types.dsl.StringPath;
+import com.querydsl.jpa.impl.JPAQuery;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.Session;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import soo.ram.querydsl.dto.EstimatedPage;
+import soo.ram.querydsl.dto.MemberSearchCondition;
+import soo.ram.querydsl.dto.MemberTeamDto;
+import soo.ram.querydsl.dto.QMemberTeamDto;
+import soo.ram.querydsl.dto.UsernameMatch;
+import soo.ram.querydsl.entity.Member;
+import soo.ram.querydsl.entity.Team;
+import soo.ram.querydsl.repository.MemberRepositoryCustom;
+import soo.ram.querydsl.support.QueryDeadline;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.springframework.util.StringUtils.hasText;
+import static soo.ram.querydsl.entity.QMember.member;
+import static soo.ram.querydsl.entity.QTeam.team;
+
+/**
+ * 샤드로 나뉜 회원 저장소.
+ * save/findById 는 id(또는 팀 id)로 샤드 하나에만 가고,
+ * 검색은 모든 샤드에 동시에 같은 쿼리를 보낸 뒤(scatter) 정렬 기준으로 k-way merge 해서 합친다(gather).
+ * 페이징은 샤드마다 offset + size 개까지 정렬해서 가져와 합친 뒤 offset 만큼 버리고, total 은 샤드별 count 의 합이다.
+ * <p>
+ * 라이브러리로만 쓰는 계층이다. 컨트롤러나 MemberRepository 에 연결되어 있지 않으므로
+ * querydsl.sharding.enabled 를 켜도 기존 요청은 기본 DB 를 쓰고, 샤드를 쓰려면 이 빈을 직접 부른다.
+ */
+public class ShardedMemberRepository implements MemberRepositoryCustom {
+
+    //정렬 가능한 MemberTeamDto 프로퍼티 -> (쿼리 정렬 식, 합칠 때 쓰는 값)
+    private static final Map<String, SortKey> SORT_KEYS = Map.of(
+            "memberId", new SortKey(member.id, MemberTeamDto::getMemberId),
+            "username", new SortKey(member.userName, MemberTeamDto::getUsername),
+            "age", new SortKey(member.age, MemberTeamDto::getAge),
+            "teamId", new SortKey(team.id, MemberTeamDto::getTeamId),
+            "teamName", new SortKey(team.name, MemberTeamDto::getTeamName));
+
+    private final MemberShards shards;
+    private final ThreadPoolTaskExecutor scatter;
+
+    public ShardedMemberRepository(MemberShards shards) {
+        this.shards = shards;
+
+        this.scatter = new ThreadPoolTaskExecutor();
+        scatter.setCorePoolSize(shards.size());
+        scatter.setMaxPoolSize(shards.size());
+        scatter.setThreadNamePrefix("member-shard-");
+        scatter.initialize();
+    }
+
+    public Team save(Team team) {
+        MemberShard shard = shards.shardFor(team);
+        return shard.write(() -> {
+            shard.getEm().persist(team);
+            return team;
+        });
+    }
+
+    /**
+     * 팀과 같은 샤드에 저장한다. 팀은 먼저 save(Team) 으로 저장돼 있어야 한다.
+     */
+    public Member save(Member member) {
+        MemberShard shard = shards.shardFor(member);
+        return shard.write(() -> {
+            if (member.getId() == null) {
+                shard.getEm().persist(member);
+                return member;
+            }
+            return shard.getEm().merge(member);
+        });
+    }
+
+    public Optional<Member> findById(Long id) {
+        MemberShard shard = shards.shardOf(id);
+        return shard.read(() -> Optional.ofNullable(shard.getEm().find(Member.class, id)));
+    }
+
+    public Optional<Team> findTeamById(Long id) {
+        MemberShard shard = shards.shardOf(id);
+        return shard.read(() -> Optional.ofNullable(shard.getEm().find(Team.class, id)));
+    }
+
+    @Override
+    public List<MemberTeamDto> search(MemberSearchCondition condition) {
+        Comparator<MemberTeamDto> order = comparator(Sort.unsorted());
+        List<List<MemberTeamDto>> results = scatter(shard ->
+                withDeadline(shard, searchQuery(shard, condition, Sort.unsorted())).fetch());
+        return merge(results, order, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Page<MemberTeamDto> searchPageSimple(MemberSearchCondition condition, Pageable pageable) {
+        return searchPage(condition, pageable);
+    }
+
+    @Override
+    public Page<MemberTeamDto> searchPageComplex(MemberSearchCondition condition, Pageable pageable) {
+        return searchPage(condition, pageable);
+    }
+
+    //샤드마다 count 를 동시에 실행하므로 정확한 개수를 그대로 쓴다
+    @Override
+    public EstimatedPage<MemberTeamDto> searchPageEstimated(MemberSearchCondition condition, Pageable pageable) {
+        Page<MemberTeamDto> page = searchPage(condition, pageable);
+        return new EstimatedPage<>(page.getContent(), pageable, page.getTotalElements(), false);
+    }
+
+    private Page<MemberTeamDto> searchPage(MemberSearchCondition condition, Pageable pageable) {
+        Sort sort = pageable.getSort();
+        long offset = pageable.getOffset();
+        int size = pageable.getPageSize();
+
+        //어느 샤드에서 몇 개가 나올지 모르니 샤드마다 offset + size 개를 가져온다
+        List<ShardPage> results = scatter(shard -> new ShardPage(
+                withDeadline(shard, searchQuery(shard, condition, sort))
+                        .limit(offset + size)
+                        .fetch(),
+                withDeadline(shard, shard.getQueryFactory()
+                        .select(member.id)
+                        .from(member)
+                        .leftJoin(member.team, team)
+                        .where(where(shard, condition)))
+                        .fetchCount()));
+
+        List<MemberTeamDto> content = merge(
+                results.stream().map(ShardPage::getContent).collect(Collectors.toList()),
+                comparator(sort), offset, size);
+        long total = results.stream().mapToLong(ShardPage::getTotal).sum();
+        return new PageImpl<>(content, pageable, total);
+    }
+
+    private JPAQuery<MemberTeamDto> searchQuery(MemberShard shard, MemberSearchCondition condition, Sort sort) {
+        return shard.getQueryFactory()
+                .select(new QMemberTeamDto(
+                        member.id.as("memberId"),
+                        member.userName,
+                        member.age,
+                        team.id.as("teamId"),
+                        team.name.as("teamName")
+                ))
+                .from(member)
+                .leftJoin(member.team, team)
+                .where(where(shard, condition))
+                .orderBy(orderSpecifiers(sort));
+    }
+
+    /**
+     * 샤드마다 읽기 트랜잭션에서 work 를 동시에 실행한다.
+     * scatter 마다 마감(호출한 스레드의 마감이 있으면 그 하위, 없으면 unbounded)을 만들어 샤드 세션을 등록해 두고,
+     * 한 샤드가 실패하면 그 마감을 cancel 해서 아직 실행 중인 다른 샤드 쿼리를 취소한다.
+     * (CompletableFuture.cancel 은 작업 스레드도, JDBC statement 도 멈추지 못한다)
+     */
+    <T> List<T> scatter(Function<MemberShard, T> work) {
+        QueryDeadline parent = QueryDeadline.current();
+        QueryDeadline deadline = parent == null ? QueryDeadline.unbounded() : parent.child();
+        try {
+            List<CompletableFuture<T>> futures = shards.all().stream()
+                    .map(shard -> CompletableFuture.supplyAsync(
+                            () -> shard.read(() -> call(deadline, shard, work)), scatter))
+                    .collect(Collectors.toList());
+            try {
+                return futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+            } catch (CompletionException e) {
+                deadline.cancel();
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        } finally {
+            if (parent != null) {
+                parent.removeChild(deadline);
+            }
+        }
+    }
+
+    /**
+     * 샤드별로 정렬된 결과를 합쳐서 skip 개를 건너뛰고 limit 개를 돌려준다.
+     */
+    static <T> List<T> merge(List<List<T>> sorted, Comparator<? super T> order, long skip, int limit) {
+        PriorityQueue<Cursor<T>> heads = new PriorityQueue<>(Math.max(1, sorted.size()),
+                (a, b) -> order.compare(a.head, b.head));
+        for (List<T> rows : sorted) {
+            Iterator<T> iterator = rows.iterator();
+            if (iterator.hasNext()) {
+                heads.add(new Cursor<>(iterator));
+            }
+        }
+
+        List<T> result = new ArrayList<>();
+        long skipped = 0;
+        while (!heads.isEmpty() && result.size() < limit) {
+            Cursor<T> cursor = heads.poll();
+            if (skipped < skip) {
+                skipped++;
+            } else {
+                result.add(cursor.head);
+            }
+            if (cursor.advance()) {
+                heads.add(cursor);
+            }
+        }
+        return result;
+    }
+
+    private BooleanExpression[] where(MemberShard shard, MemberSearchCondition condition) {
+        return new BooleanExpression[]{
+                usernameMatches(shard, condition),
+                teamNameEq(condition.getTeamName()),
+                ageGoe(condition.getAgeGoe()),
+                ageLoe(condition.getAgeLoe())};
+    }
+
+    private BooleanExpression ageLoe(Integer ageLoe) {
+        return ageLoe == null ? null : member.age.loe(ageLoe);
+    }
+
+    private BooleanExpression ageGoe(Integer ageGoe) {
+        return ageGoe == null ? null : member.age.goe(ageGoe);
+    }
+
+    private BooleanExpression teamNameEq(String teamName) {
+        return hasText(teamName) ? team.name.eq(teamName) : null;
+    }
+
+    private BooleanExpression usernameMatches(MemberShard shard, MemberSearchCondition condition) {
+        String username = condition.getUsername();
+        if (!hasText(username)) {
+            return null;
+        }
+        StringPath path = condition.isIgnoreCase() ? member.normalizedUserName : member.userName;
+        String value = condition.isIgnoreCase() ? Member.normalize(username) : username;
+
+        UsernameMatch match = condition.getUsernameMatch();
+        switch (match == null ? UsernameMatch.EXACT : match) {
+            case PREFIX:
+                return path.startsWith(value);
+            case CONTAINS:
+                //샤드마다 자기 인덱스를 쓴다. 인덱스가 아직 모르는 회원은 change_version 으로 찾는다
+                Set<Long> candidates = shard.getUsernameIndex().candidates(value, version -> shard.getQueryFactory()
+                        .select(member.id)
+                        .from(member)
+                        .where(member.changeVersion.gt(version), path.contains(value))
+                        .fetch());
+                if (candidates == null) {
+                    return path.contains(value);
+                }
+                if (candidates.isEmpty()) {
+                    return member.id.isNull();
+                }
+                return member.id.in(candidates).and(path.contains(value));
+            default:
+                return path.eq(value);
+        }
+    }
+
+    private static OrderSpecifier<?>[] orderSpecifiers(Sort sort) {
+        List<OrderSpecifier<?>> orders = new ArrayList<>();
+        for (Sort.Order order : sort) {
+            orders.add(sortKey(order.getProperty()).orderSpecifier(order.isAscending()));
+        }
+        orders.add(member.id.asc()); //샤드 사이에서도 순서가 하나로 정해지도록 마지막은 항상 id
+        return orders.toArray(new OrderSpecifier<?>[0]);
+    }
+
+    private static Comparator<MemberTeamDto> comparator(Sort sort) {
+        Comparator<MemberTeamDto> comparator = (a, b) -> 0;
+        for (Sort.Order order : sort) {
+            comparator = comparator.thenComparing(sortKey(order.getProperty()).comparator(order.isAscending()));
+        }
+        return comparator.thenComparing(MemberTeamDto::getMemberId);
+    }
+
+    private static SortKey sortKey(String property) {
+        SortKey key = SORT_KEYS.get(property);
+        if (key == null) {
+            throw new IllegalArgumentException("정렬할 수 없는 속성입니다: " + property);
+        }
+        return key;
+    }
+
+    //샤드 트랜잭션의 세션을 등록하고 그 세션으로 work 를 실행한다.
+    //shared EntityManager 는 Session 을 구현한 프록시라 unwrap 하면 프록시가 나오므로 트랜잭션의 EntityManager 에서 꺼낸다
+    private static <T> T call(QueryDeadline deadline, MemberShard shard, Function<MemberShard, T> work) {
+        Session session = EntityManagerFactoryUtils.getTransactionalEntityManager(shard.getEmf()).unwrap(Session.class);
+        try {
+            return deadline.call(session, () -> work.apply(shard));
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static <T> JPAQuery<T> withDeadline(MemberShard shard, JPAQuery<T> query) {
+        return QueryDeadline.apply(query, shard.getEm());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scatter.shutdown();
+    }
+
+    /**
+     * 정렬 속성 하나. 쿼리의 null 순서와 합칠 때의 null 순서를 맞추려고 둘 다 null 을 앞에 둔다.
+     */
+    private static class SortKey {
+        private final ComparableExpressionBase<?> expression;
+        private final Function<MemberTeamDto, Comparable<?>> value;
+
+        @SuppressWarnings("unchecked")
+        <C extends Comparable<?>> SortKey(ComparableExpressionBase<?> expression, Function<MemberTeamDto, C> value) {
+            this.expression = expression;
+            this.value = (Function<MemberTeamDto, Comparable<?>>) value;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        OrderSpecifier<?> orderSpecifier(boolean ascending) {
+            return new OrderSpecifier(ascending ? Order.ASC : Order.DESC, expression,
+                    ascending ? OrderSpecifier.NullHandling.NullsFirst : OrderSpecifier.NullHandling.NullsLast);
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Comparator<MemberTeamDto> comparator(boolean ascending) {
+            Comparator<Comparable> natural = Comparator.naturalOrder();
+            Comparator<MemberTeamDto> comparator = Comparator.comparing(value::apply, Comparator.nullsFirst(natural));
+            return ascending ? comparator : comparator.reversed();
+        }
+    }
+
+    private static class Cursor<T> {
+        private final Iterator<T> rows;
+        private T head;
+
+        Cursor(Iterator<T> rows) {
+            this.rows = rows;
+            this.head = rows.next();
+        }
+
+        boolean advance() {
+            if (!rows.hasNext()) {
+                return false;
+            }
+            head = rows.next();
+            return true;
+        }
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    private static class ShardPage {
+        private final List<MemberTeamDto> content;
+        private final long total;
+    }
+}
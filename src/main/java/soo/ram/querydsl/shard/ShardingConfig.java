@@ -0,0 +1,89 @@
+package soo.ram.querydsl.shard;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.orm.jpa.hibernate.SpringImplicitNamingStrategy;
+import org.springframework.boot.orm.jpa.hibernate.SpringPhysicalNamingStrategy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.metrics.ApplicationStartup;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import soo.ram.querydsl.entity.Member;
+import soo.ram.querydsl.repository.ChangeVersionListener;
+import soo.ram.querydsl.repository.ChangeVersionTracker;
+import soo.ram.querydsl.repository.UsernameNgramIndex;
+
+import javax.persistence.EntityManagerFactory;
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * querydsl.sharding.enabled=true 일 때 회원 샤드 DB shards 개와 ShardedMemberRepository 빈을 만든다.
+ * 기본은 샤드마다 메모리 H2 하나씩 (url 의 {0} 이 샤드 번호).
+ * 샤드에는 ShardedMemberRepository 로 저장한 회원만 있다. 컨트롤러, MemberRepository, MemberJpaRepository,
+ * 초기 데이터는 이 설정과 상관없이 기본 DB 를 쓴다.
+ */
+@Configuration
+@ConditionalOnProperty(name = "querydsl.sharding.enabled", havingValue = "true")
+public class ShardingConfig {
+
+    @Bean
+    MemberShards memberShards(@Value("${querydsl.sharding.shards:4}") int count,
+                              @Value("${querydsl.sharding.url:jdbc:h2:mem:member-shard-{0};DB_CLOSE_DELAY=-1}") String url,
+                              @Value("${querydsl.username-index.max-members:1000000}") int maxMembers,
+                              @Value("${querydsl.username-index.max-candidates:1000}") int maxCandidates,
+                              @Value("${querydsl.username-index.refresh:1s}") Duration refresh) {
+        List<MemberShard> shards = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setJdbcUrl(MessageFormat.format(url, String.valueOf(i)));
+            dataSource.setUsername("sa");
+            dataSource.setPoolName("member-shard-" + i);
+
+            //샤드의 쓰기와 삭제도 기본 DB 처럼 change_version 과 tombstone 을 남기고, 인덱스는 그것으로 따라간다
+            ChangeVersionTracker tracker = new ChangeVersionTracker();
+            EntityManagerFactory emf = entityManagerFactory(dataSource, i, new ChangeVersionListener(tracker));
+            UsernameNgramIndex usernameIndex = new UsernameNgramIndex(() -> emf, tracker, ApplicationStartup.DEFAULT,
+                    maxMembers, maxCandidates, refresh);
+
+            MemberShard shard = new MemberShard(i, dataSource, emf, usernameIndex);
+            //샤드 i 는 i+1, i+1+N, i+1+2N ... 만 발급한다
+            String sequence = "alter sequence hibernate_sequence restart with " + (i + 1) + " increment by " + count;
+            shard.write(() -> shard.getEm().createNativeQuery(sequence).executeUpdate());
+            usernameIndex.rebuild();
+            shards.add(shard);
+        }
+        return new MemberShards(shards);
+    }
+
+    @Bean
+    ShardedMemberRepository shardedMemberRepository(MemberShards memberShards) {
+        return new ShardedMemberRepository(memberShards);
+    }
+
+    private static EntityManagerFactory entityManagerFactory(HikariDataSource dataSource, int index,
+                                                             ChangeVersionListener changeVersionListener) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("hibernate.hbm2ddl.auto", "create");
+        properties.put("hibernate.physical_naming_strategy", SpringPhysicalNamingStrategy.class.getName());
+        properties.put("hibernate.implicit_naming_strategy", SpringImplicitNamingStrategy.class.getName());
+        properties.put("hibernate.jdbc.batch_size", 1000);
+        properties.put("hibernate.order_inserts", true);
+        changeVersionListener.customize(properties);
+
+        LocalContainerEntityManagerFactoryBean factory = new LocalContainerEntityManagerFactoryBean();
+        factory.setPersistenceUnitName("member-shard-" + index);
+        factory.setDataSource(dataSource);
+        factory.setPackagesToScan(Member.class.getPackage().getName());
+        factory.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factory.setJpaPropertyMap(properties);
+        factory.afterPropertiesSet();
+        return factory.getObject();
+    }
+}
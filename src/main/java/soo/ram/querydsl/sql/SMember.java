@@ -0,0 +1,65 @@
+package soo.ram.querydsl.sql;
+
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.PathMetadata;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.core.types.dsl.StringPath;
+import com.querydsl.sql.ColumnMetadata;
+import com.querydsl.sql.ForeignKey;
+import com.querydsl.sql.PrimaryKey;
+import com.querydsl.sql.RelationalPathBase;
+
+import java.sql.Types;
+
+import static com.querydsl.core.types.PathMetadataFactory.forVariable;
+
+/**
+ * member 테이블의 querydsl-sql 메타모델. (querydsl-sql codegen 출력과 같은 모양, 이름 접두사 S)
+ * 테이블은 Member 엔티티로 hibernate 가 만들기 때문에 엔티티 컬럼이 바뀌면 같이 바꿔야 한다.
+ */
+public class SMember extends RelationalPathBase<SMember> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final SMember member = new SMember("member");
+
+    public final NumberPath<Long> memberId = createNumber("memberId", Long.class);
+
+    public final NumberPath<Integer> age = createNumber("age", Integer.class);
+
+    public final NumberPath<Long> changeVersion = createNumber("changeVersion", Long.class);
+
+    public final StringPath normalizedUserName = createString("normalizedUserName");
+
+    public final NumberPath<Long> teamId = createNumber("teamId", Long.class);
+
+    public final StringPath userName = createString("userName");
+
+    public final PrimaryKey<SMember> memberPk = createPrimaryKey(memberId);
+
+    public final ForeignKey<STeam> teamFk = createForeignKey(teamId, "TEAM_ID");
+
+    public SMember(String variable) {
+        super(SMember.class, forVariable(variable), "PUBLIC", "MEMBER");
+        addMetadata();
+    }
+
+    public SMember(Path<? extends SMember> path) {
+        super(path.getType(), path.getMetadata(), "PUBLIC", "MEMBER");
+        addMetadata();
+    }
+
+    public SMember(PathMetadata metadata) {
+        super(SMember.class, metadata, "PUBLIC", "MEMBER");
+        addMetadata();
+    }
+
+    public void addMetadata() {
+        addMetadata(memberId, ColumnMetadata.named("MEMBER_ID").withIndex(1).ofType(Types.BIGINT).withSize(19).notNull());
+        addMetadata(age, ColumnMetadata.named("AGE").withIndex(2).ofType(Types.INTEGER).withSize(10).notNull());
+        addMetadata(changeVersion, ColumnMetadata.named("CHANGE_VERSION").withIndex(3).ofType(Types.BIGINT).withSize(19).notNull());
+        addMetadata(normalizedUserName, ColumnMetadata.named("NORMALIZED_USER_NAME").withIndex(4).ofType(Types.VARCHAR).withSize(255));
+        addMetadata(userName, ColumnMetadata.named("USER_NAME").withIndex(5).ofType(Types.VARCHAR).withSize(255));
+        addMetadata(teamId, ColumnMetadata.named("TEAM_ID").withIndex(6).ofType(Types.BIGINT).withSize(19));
+    }
+}
@@ -0,0 +1,48 @@
+package soo.ram.querydsl.sql;
+
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.PathMetadata;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.sql.ColumnMetadata;
+import com.querydsl.sql.PrimaryKey;
+import com.querydsl.sql.RelationalPathBase;
+
+import java.sql.Types;
+
+import static com.querydsl.core.types.PathMetadataFactory.forVariable;
+
+/**
+ * member_tombstone 테이블의 querydsl-sql 메타모델. (querydsl-sql codegen 출력과 같은 모양, 이름 접두사 S)
+ */
+public class SMemberTombstone extends RelationalPathBase<SMemberTombstone> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final SMemberTombstone memberTombstone = new SMemberTombstone("member_tombstone");
+
+    public final NumberPath<Long> changeVersion = createNumber("changeVersion", Long.class);
+
+    public final NumberPath<Long> memberId = createNumber("memberId", Long.class);
+
+    public final PrimaryKey<SMemberTombstone> memberTombstonePk = createPrimaryKey(changeVersion);
+
+    public SMemberTombstone(String variable) {
+        super(SMemberTombstone.class, forVariable(variable), "PUBLIC", "MEMBER_TOMBSTONE");
+        addMetadata();
+    }
+
+    public SMemberTombstone(Path<? extends SMemberTombstone> path) {
+        super(path.getType(), path.getMetadata(), "PUBLIC", "MEMBER_TOMBSTONE");
+        addMetadata();
+    }
+
+    public SMemberTombstone(PathMetadata metadata) {
+        super(SMemberTombstone.class, metadata, "PUBLIC", "MEMBER_TOMBSTONE");
+        addMetadata();
+    }
+
+    public void addMetadata() {
+        addMetadata(changeVersion, ColumnMetadata.named("CHANGE_VERSION").withIndex(1).ofType(Types.BIGINT).withSize(19).notNull());
+        addMetadata(memberId, ColumnMetadata.named("MEMBER_ID").withIndex(2).ofType(Types.BIGINT).withSize(19));
+    }
+}
@@ -0,0 +1,30 @@
+package soo.ram.querydsl.sql;
+
+import com.querydsl.sql.SQLQueryFactory;
+import com.querydsl.sql.SQLTemplates;
+import com.querydsl.sql.SQLTemplatesRegistry;
+import com.querydsl.sql.spring.SpringConnectionProvider;
+import com.querydsl.sql.spring.SpringExceptionTranslator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+import javax.sql.DataSource;
+
+/**
+ * JPA 와 같은 DataSource 를 쓰는 querydsl-sql SQLQueryFactory.
+ * SpringConnectionProvider 로 지금 트랜잭션(JpaTransactionManager)의 커넥션을 같이 쓴다.
+ */
+@Configuration
+public class SqlQueryConfig {
+
+    @Bean
+    SQLQueryFactory sqlQueryFactory(DataSource dataSource) throws MetaDataAccessException {
+        SQLTemplates templates = JdbcUtils.extractDatabaseMetaData(dataSource,
+                metaData -> new SQLTemplatesRegistry().getTemplates(metaData));
+        com.querydsl.sql.Configuration configuration = new com.querydsl.sql.Configuration(templates);
+        configuration.setExceptionTranslator(new SpringExceptionTranslator());
+        return new SQLQueryFactory(configuration, new SpringConnectionProvider(dataSource));
+    }
+}
@@ -0,0 +1,274 @@
+package soo.ram.querydsl.support;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 직렬화된 응답(byte)을 힙 밖(direct ByteBuffer)에 두는 LRU 캐시.
+ * 큰 결과 객체를 힙에 오래 들고 있지 않아서 old gen 이 커지거나 GC 가 길어지지 않는다.
+ * <p>
+ * 메모리는 slab-size 짜리 slab 을 필요할 때 max-memory 까지 할당하고, slab 을 block-size 블록으로 나눠 쓴다.
+ * 값 하나는 블록 여러 개에 나눠 담기므로 단편화가 없고, 자리가 모자라면 가장 오래 안 쓴 값부터 뺀다.
+ * 힙에는 key 와 블록 번호만 있다.
+ * <p>
+ * 읽는 중(Hit 을 닫기 전)인 값은 빠지더라도 다 읽을 때까지 블록을 돌려주지 않는다.
+ */
+@Component
+@ConditionalOnProperty(name = "querydsl.page-cache.enabled", havingValue = "true")
+public class OffHeapPageCache {
+
+    private final int blockSize;
+    private final int blocksPerSlab;
+    private final int maxSlabs;
+
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private int[] freeBlocks = new int[0];
+    private int freeCount;
+    private int usedBlocks;
+
+    //access-order: 처음이 가장 오래 안 쓴 값
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public OffHeapPageCache(MeterRegistry meterRegistry,
+                            @Value("${querydsl.page-cache.max-memory:64MB}") DataSize maxMemory,
+                            @Value("${querydsl.page-cache.slab-size:4MB}") DataSize slabSize,
+                            @Value("${querydsl.page-cache.block-size:8KB}") DataSize blockSize) {
+        this.blockSize = Math.toIntExact(blockSize.toBytes());
+        this.blocksPerSlab = Math.toIntExact(slabSize.toBytes() / blockSize.toBytes());
+        this.maxSlabs = Math.toIntExact(maxMemory.toBytes() / slabSize.toBytes());
+        if (blocksPerSlab < 1 || maxSlabs < 1) {
+            throw new IllegalArgumentException("page-cache: block-size <= slab-size <= max-memory 이어야 합니다");
+        }
+
+        this.hits = meterRegistry.counter("member.search.page-cache.requests", "result", "hit");
+        this.misses = meterRegistry.counter("member.search.page-cache.requests", "result", "miss");
+        this.evictions = meterRegistry.counter("member.search.page-cache.evictions");
+        Gauge.builder("member.search.page-cache.memory.used", this, cache -> cache.usedBytes())
+                .baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("member.search.page-cache.memory.allocated", this, cache -> cache.allocatedBytes())
+                .baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("member.search.page-cache.entries", this, cache -> cache.size())
+                .register(meterRegistry);
+        Gauge.builder("member.search.page-cache.hit-ratio", this, cache -> cache.hitRatio())
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return 없으면 null. 있으면 다 쓴 뒤 close 해야 한다.
+     */
+    public synchronized Hit get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        entry.readers++;
+        return new Hit(entry);
+    }
+
+    /**
+     * in 에서 length 바이트를 읽어 key 로 넣는다. 너무 크거나 자리를 만들 수 없으면 넣지 않는다.
+     */
+    public boolean put(String key, InputStream in, int length) throws IOException {
+        int needed = (length + blockSize - 1) / blockSize;
+        if (length == 0 || needed > blocksPerSlab * maxSlabs) {
+            return false;
+        }
+        int[] blocks = reserve(key, needed);
+        if (blocks == null) {
+            return false;
+        }
+
+        //예약한 블록은 아무도 보지 않으므로 락 없이 채운다
+        byte[] buffer = new byte[blockSize];
+        int remaining = length;
+        try {
+            for (int block : blocks) {
+                int size = Math.min(blockSize, remaining);
+                int read = in.readNBytes(buffer, 0, size);
+                if (read < size) {
+                    throw new IOException("expected " + length + " bytes but stream ended");
+                }
+                block(block).put(buffer, 0, size);
+                remaining -= size;
+            }
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                release(blocks);
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            if (entries.containsKey(key)) { //같은 페이지를 동시에 만든 요청이 먼저 넣었다
+                release(blocks);
+                return true;
+            }
+            entries.put(key, new Entry(blocks, length));
+        }
+        return true;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long usedBytes() {
+        return (long) usedBlocks * blockSize;
+    }
+
+    public synchronized long allocatedBytes() {
+        return (long) slabs.size() * blocksPerSlab * blockSize;
+    }
+
+    public double hitRatio() {
+        double total = hits.count() + misses.count();
+        return total == 0 ? 0 : hits.count() / total;
+    }
+
+    public double evictionCount() {
+        return evictions.count();
+    }
+
+    //자리가 모자라면 slab 을 늘리고, 더 못 늘리면 오래된 값부터 뺀다
+    private synchronized int[] reserve(String key, int needed) {
+        if (entries.containsKey(key)) {
+            return null;
+        }
+        while (freeCount < needed) {
+            if (slabs.size() < maxSlabs) {
+                addSlab();
+            } else if (!evictEldest()) {
+                return null; //남은 값이 모두 읽는 중
+            }
+        }
+        int[] blocks = new int[needed];
+        for (int i = 0; i < needed; i++) {
+            blocks[i] = freeBlocks[--freeCount];
+        }
+        usedBlocks += needed;
+        return blocks;
+    }
+
+    private void addSlab() {
+        int first = slabs.size() * blocksPerSlab;
+        slabs.add(ByteBuffer.allocateDirect(blocksPerSlab * blockSize));
+        int[] grown = new int[slabs.size() * blocksPerSlab];
+        System.arraycopy(freeBlocks, 0, grown, 0, freeCount);
+        freeBlocks = grown;
+        for (int block = first + blocksPerSlab - 1; block >= first; block--) {
+            freeBlocks[freeCount++] = block;
+        }
+    }
+
+    private boolean evictEldest() {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (eldest.hasNext()) {
+            Entry entry = eldest.next().getValue();
+            eldest.remove();
+            entry.removed = true;
+            evictions.increment();
+            if (entry.readers == 0) {
+                release(entry.blocks);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void release(int[] blocks) {
+        for (int block : blocks) {
+            freeBlocks[freeCount++] = block;
+        }
+        usedBlocks -= blocks.length;
+    }
+
+    //block 번째 블록만 보이는 버퍼. slab 의 position/limit 은 건드리지 않는다
+    private ByteBuffer block(int block) {
+        ByteBuffer slab;
+        synchronized (this) {
+            slab = slabs.get(block / blocksPerSlab);
+        }
+        ByteBuffer view = slab.duplicate();
+        int offset = (block % blocksPerSlab) * blockSize;
+        view.limit(offset + blockSize).position(offset);
+        return view.slice();
+    }
+
+    private static final class Entry {
+        final int[] blocks;
+        final int length;
+        int readers;
+        boolean removed;
+
+        Entry(int[] blocks, int length) {
+            this.blocks = blocks;
+            this.length = length;
+        }
+    }
+
+    /**
+     * 읽는 동안 값의 블록을 잡아둔다.
+     */
+    public final class Hit implements AutoCloseable {
+
+        private final Entry entry;
+        private boolean closed;
+
+        private Hit(Entry entry) {
+            this.entry = entry;
+        }
+
+        public int length() {
+            return entry.length;
+        }
+
+        /**
+         * 힙으로 역직렬화하지 않고 off-heap 블록을 그대로 channel 에 쓴다.
+         */
+        public void writeTo(WritableByteChannel channel) throws IOException {
+            int remaining = entry.length;
+            for (int block : entry.blocks) {
+                ByteBuffer view = block(block);
+                view.limit(Math.min(blockSize, remaining));
+                remaining -= view.remaining();
+                while (view.hasRemaining()) {
+                    channel.write(view);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (OffHeapPageCache.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (--entry.readers == 0 && entry.removed) {
+                    release(entry.blocks);
+                }
+            }
+        }
+    }
+}
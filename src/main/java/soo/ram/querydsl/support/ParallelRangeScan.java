@@ -0,0 +1,145 @@
+package soo.ram.querydsl.support;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.EntityPath;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * 큰 스캔을 id 구간으로 나눠서 동시에 실행한다.
+ * min(id) ~ max(id) 를 parallelism 개의 겹치지 않는 구간으로 자르고, 구간마다 작업 스레드에서
+ * 새 EntityManager(= 자기 커넥션, 읽기 전용 트랜잭션)로 쿼리를 실행한 뒤 구간 순서대로 이어 붙인다.
+ * 구간 쿼리를 id 순으로 정렬하면 전체 결과도 id 순이다.
+ * 돌려주는 엔티티는 준영속 상태라 지연 로딩 연관관계는 쓸 수 없다. (DTO 조회에 쓰는 것이 좋다)
+ * 호출한 트랜잭션에서 아직 커밋하지 않은 변경은 보이지 않는다.
+ * 호출한 스레드의 QueryDeadline 은 구간마다 그 EntityManager 의 세션에 걸어서 cancel 이 모든 구간 쿼리에 닿는다.
+ */
+@Component
+public class ParallelRangeScan {
+
+    private final EntityManagerFactory emf;
+    private final int parallelism;
+    private final ThreadPoolTaskExecutor workers;
+
+    public ParallelRangeScan(EntityManagerFactory emf,
+                             @Value("${querydsl.parallel-scan.parallelism:4}") int parallelism) {
+        this.emf = emf;
+        this.parallelism = parallelism;
+
+        this.workers = new ThreadPoolTaskExecutor();
+        workers.setCorePoolSize(parallelism);
+        workers.setMaxPoolSize(parallelism);
+        workers.setThreadNamePrefix("range-scan-");
+        workers.initialize();
+    }
+
+    public <T> List<T> scan(NumberPath<Long> key, BiFunction<JPAQueryFactory, BooleanExpression, List<T>> rangeQuery) {
+        return scan(key, parallelism, rangeQuery);
+    }
+
+    /**
+     * @param key        나눌 기준 (보통 id), 엔티티 경로의 바로 아래 속성이어야 한다
+     * @param rangeQuery 구간 조건을 where 에 넣어서 실행하는 쿼리
+     */
+    public <T> List<T> scan(NumberPath<Long> key, int parallelism,
+                            BiFunction<JPAQueryFactory, BooleanExpression, List<T>> rangeQuery) {
+        QueryDeadline deadline = QueryDeadline.current();
+        Tuple bounds = inTransaction(deadline, queryFactory -> queryFactory
+                .select(key.min(), key.max())
+                .from((EntityPath<?>) key.getMetadata().getParent())
+                .fetchOne());
+        Long min = bounds == null ? null : bounds.get(key.min());
+        Long max = bounds == null ? null : bounds.get(key.max());
+        if (min == null || max == null) {
+            return new ArrayList<>();
+        }
+
+        List<CompletableFuture<List<T>>> futures = ranges(key, min, max, parallelism).stream()
+                .map(range -> CompletableFuture.supplyAsync(
+                        () -> inTransaction(deadline, queryFactory -> rangeQuery.apply(queryFactory, range)),
+                        workers))
+                .collect(Collectors.toList());
+
+        List<T> result = new ArrayList<>();
+        try {
+            for (CompletableFuture<List<T>> future : futures) {
+                result.addAll(future.join());
+            }
+        } catch (CompletionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * [min, max] 를 최대 parallelism 개의 겹치지 않는 닫힌 구간으로 나눈다.
+     */
+    static List<BooleanExpression> ranges(NumberPath<Long> key, long min, long max, int parallelism) {
+        long span = max - min + 1;
+        int count = (int) Math.max(1, Math.min(parallelism, span));
+        List<BooleanExpression> ranges = new ArrayList<>();
+        long from = min;
+        for (int i = 0; i < count; i++) {
+            long size = span / count + (i < span % count ? 1 : 0);
+            ranges.add(key.between(from, from + size - 1));
+            from += size;
+        }
+        return ranges;
+    }
+
+    private <T> T inTransaction(QueryDeadline deadline, Function<JPAQueryFactory, T> work) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            Session session = em.unwrap(Session.class);
+            session.setDefaultReadOnly(true);
+            em.getTransaction().begin();
+            T result = withDeadline(deadline, session, () -> work.apply(new JPAQueryFactory(em)));
+            em.getTransaction().commit();
+            return result;
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    private static <T> T withDeadline(QueryDeadline deadline, Session session, Supplier<T> work) {
+        if (deadline == null) {
+            return work.get();
+        }
+        try {
+            return deadline.call(session, work::get);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+    }
+}
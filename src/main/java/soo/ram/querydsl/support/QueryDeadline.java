@@ -0,0 +1,197 @@
+package soo.ram.querydsl.support;
+
+import com.querydsl.jpa.impl.JPAQuery;
+import com.querydsl.sql.SQLQuery;
+import com.querydsl.sql.StatementOptions;
+import org.hibernate.Session;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 요청 하나의 쿼리 마감시간.
+ * 컨트롤러가 만들어서 작업 스레드에 걸어두면(call) 리포지토리가 쿼리를 실행하기 전에 apply 로
+ * 남은 시간을 javax.persistence.query.timeout 힌트로 넘기고, 마감이 지났거나 취소됐으면 실행하지 않는다.
+ * cancel 은 다른 스레드(타임아웃, 클라이언트 연결 끊김)에서 불러서 실행 중인 statement 를 취소한다.
+ * <p>
+ * 한 요청이 여러 스레드에서 쿼리를 실행할 수 있어서(샤드 scatter, 병렬 구간 조회) 세션은 등록한 스레드별로 들고 있고,
+ * cancel 은 등록된 세션을 모두 취소한다. call 이 끝나면 그 스레드가 등록한 세션만 뺀다.
+ * <p>
+ * 요청 안의 일부 쿼리만 먼저 취소해야 하면 child 로 하위 마감을 만든다. (샤드 하나가 실패하면 나머지 샤드만 취소)
+ */
+public class QueryDeadline {
+
+    public static final String TIMEOUT_HINT = "javax.persistence.query.timeout";
+
+    private static final ThreadLocal<QueryDeadline> CURRENT = new ThreadLocal<>();
+
+    //unbounded 의 남은 시간, nanoTime 에 더해도 넘치지 않는 값 (약 73년)
+    private static final long UNBOUNDED_NANOS = Long.MAX_VALUE / 4;
+
+    private final long deadlineNanos;
+    private final boolean bounded; //false 면 타임아웃을 걸지 않는다 (unbounded)
+    private volatile boolean cancelled;
+    private final Map<Session, Thread> sessions = new ConcurrentHashMap<>();
+    private final Set<QueryDeadline> children = ConcurrentHashMap.newKeySet();
+
+    public QueryDeadline(Duration timeout) {
+        this(System.nanoTime() + timeout.toNanos(), true);
+    }
+
+    private QueryDeadline(long deadlineNanos, boolean bounded) {
+        this.deadlineNanos = deadlineNanos;
+        this.bounded = bounded;
+    }
+
+    /**
+     * 마감시간 없이 cancel 로만 끝내는 마감. 호출한 쪽에 마감시간이 없어도 함께 취소할 쿼리를 묶을 때 쓴다.
+     */
+    public static QueryDeadline unbounded() {
+        return new QueryDeadline(System.nanoTime() + UNBOUNDED_NANOS, false);
+    }
+
+    public static QueryDeadline current() {
+        return CURRENT.get();
+    }
+
+    public <T> T call(Callable<T> work) throws Exception {
+        QueryDeadline previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return work.call();
+        } finally {
+            Thread current = Thread.currentThread();
+            sessions.values().removeIf(thread -> thread == current);
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * 작업 스레드가 직접 만든 EntityManager(스레드에 묶이지 않은 세션)로 쿼리를 실행할 때 쓴다.
+     * 실행하는 동안 이 스레드에 마감시간을 걸고 session 을 등록해서 cancel 이 닿게 한다.
+     * 끝나면 session 만 빼므로 이 스레드가 이미 call 안에 있어도 그 쪽 세션은 그대로 남는다.
+     */
+    public <T> T call(Session session, Callable<T> work) throws Exception {
+        QueryDeadline previous = CURRENT.get();
+        CURRENT.set(this);
+        register(session);
+        try {
+            return work.call();
+        } finally {
+            unregister(session);
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * 현재 스레드에 마감시간이 걸려 있으면 query 에 남은 시간을 타임아웃으로 건다.
+     * JDBC 타임아웃은 초 단위라 최소 1초로 올려서 넘기고, 그보다 짧은 마감은 실행 전 검사와 cancel 로 지킨다.
+     */
+    public static <T> JPAQuery<T> apply(JPAQuery<T> query, EntityManager em) {
+        QueryDeadline deadline = CURRENT.get();
+        if (deadline == null) {
+            return query;
+        }
+        long remaining = deadline.remainingMillis();
+        deadline.check(remaining);
+
+        EntityManager bound = EntityManagerFactoryUtils.getTransactionalEntityManager(em.getEntityManagerFactory());
+        if (bound != null) {
+            deadline.register(bound.unwrap(Session.class));
+        }
+        if (!deadline.bounded) {
+            return query;
+        }
+        return query.setHint(TIMEOUT_HINT, (int) Math.min(Integer.MAX_VALUE, Math.max(1000L, remaining)));
+    }
+
+    /**
+     * querydsl-sql 쿼리용. 남은 시간을 초 단위 statement 타임아웃으로 건다. (최소 1초)
+     */
+    public static <T> SQLQuery<T> apply(SQLQuery<T> query) {
+        QueryDeadline deadline = CURRENT.get();
+        if (deadline == null) {
+            return query;
+        }
+        long remaining = deadline.remainingMillis();
+        deadline.check(remaining);
+        if (!deadline.bounded) {
+            return query;
+        }
+        int seconds = (int) Math.min(Integer.MAX_VALUE, Math.max(1L, (remaining + 999) / 1000));
+        query.setStatementOptions(StatementOptions.builder().setQueryTimeout(seconds).build());
+        return query;
+    }
+
+    /**
+     * 현재 스레드에 묶이지 않은 세션(직접 만든 EntityManager)의 쿼리도 cancel 로 취소되게 등록한다.
+     * 다 쓰면 unregister 한다. (call 이 끝날 때 그 스레드가 등록한 세션은 빠진다)
+     */
+    public void register(Session session) {
+        sessions.put(session, Thread.currentThread());
+    }
+
+    public void unregister(Session session) {
+        sessions.remove(session);
+    }
+
+    public long remainingMillis() {
+        return Duration.ofNanos(deadlineNanos - System.nanoTime()).toMillis();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 같은 마감시간을 쓰는 하위 마감. 이 마감이 cancel 되면 같이 취소되지만, 하위를 cancel 해도 이 마감은 그대로다.
+     * 다 쓰면 removeChild 로 뺀다.
+     */
+    public QueryDeadline child() {
+        QueryDeadline child = new QueryDeadline(deadlineNanos, bounded);
+        children.add(child);
+        if (cancelled) {
+            child.cancel();
+        }
+        return child;
+    }
+
+    public void removeChild(QueryDeadline child) {
+        children.remove(child);
+    }
+
+    public void cancel() {
+        cancelled = true;
+        for (Session running : sessions.keySet()) {
+            try {
+                running.cancelQuery();
+            } catch (RuntimeException e) {
+                //그 사이 닫힌 세션, 나머지 세션은 계속 취소한다
+            }
+        }
+        children.forEach(QueryDeadline::cancel);
+    }
+
+    private void check(long remaining) {
+        if (cancelled) {
+            throw new QueryTimeoutException("query cancelled");
+        }
+        if (remaining <= 0) {
+            throw new QueryTimeoutException("query deadline exceeded by " + -remaining + " ms");
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package soo.ram.querydsl.support;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncTask;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+
+/**
+ * 엔드포인트별 마감시간을 걸고 비동기(WebAsyncTask)로 쿼리를 실행한다.
+ * 서블릿 요청 스레드는 바로 반환되고, 마감시간이 지나거나 클라이언트 연결이 끊기면
+ * QueryDeadline.cancel 로 실행 중인 쿼리를 취소한다. 마감 초과는 503 으로 응답된다.
+ */
+@Component
+@RequiredArgsConstructor
+public class QueryDeadlineExecutor {
+
+    private final MeterRegistry meterRegistry;
+
+    public <T> WebAsyncTask<T> submit(String endpoint, Duration timeout, Callable<T> work) {
+        return submit(endpoint, timeout, null, work);
+    }
+
+    /**
+     * @param executor 작업을 실행할 executor, null 이면 MVC 기본 async executor
+     */
+    public <T> WebAsyncTask<T> submit(String endpoint, Duration timeout, AsyncTaskExecutor executor, Callable<T> work) {
+        QueryDeadline deadline = new QueryDeadline(timeout);
+        Callable<T> callable = () -> {
+            try {
+                return deadline.call(work);
+            } catch (QueryTimeoutException e) {
+                if (!deadline.isCancelled()) {
+                    timedOut(endpoint);
+                }
+                throw e;
+            }
+        };
+        WebAsyncTask<T> task = executor == null
+                ? new WebAsyncTask<>(timeout.toMillis(), callable)
+                : new WebAsyncTask<>(timeout.toMillis(), executor, callable);
+        task.onTimeout(() -> {
+            deadline.cancel();
+            timedOut(endpoint);
+            return noResult();
+        });
+        task.onError(() -> {
+            deadline.cancel();
+            meterRegistry.counter("member.query.cancelled", "endpoint", endpoint).increment();
+            return noResult();
+        });
+        return task;
+    }
+
+    private void timedOut(String endpoint) {
+        meterRegistry.counter("member.query.timeouts", "endpoint", endpoint).increment();
+    }
+
+    //기본 처리(타임아웃은 503, 에러는 그대로)를 계속 하게 한다
+    @SuppressWarnings("unchecked")
+    private static <T> T noResult() {
+        return (T) CallableProcessingInterceptor.RESULT_NONE;
+    }
+}
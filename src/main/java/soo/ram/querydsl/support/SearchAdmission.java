@@ -0,0 +1,153 @@
+package soo.ram.querydsl.support;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import soo.ram.querydsl.dto.MemberSearchCondition;
+import soo.ram.querydsl.dto.UsernameMatch;
+import soo.ram.querydsl.entity.Member;
+import soo.ram.querydsl.repository.UsernameNgramIndex;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.springframework.util.StringUtils.hasText;
+
+/**
+ * 검색 조건으로 비용을 추정해서 비싼 검색(조건이 없거나 너무 넓은 검색)은 작은 bulkhead 로 보낸다.
+ * bulkhead 는 동시 실행 concurrency 개 + 대기 queue 개까지만 받고, 넘치면 SearchRejectedException(429) 으로 거절한다.
+ * 자리(ticket)는 요청이 아니라 작업이 끝날 때 반납한다. 타임아웃으로 응답이 나간 뒤에도 쿼리가 취소될 때까지는 자리를 잡고 있다.
+ * 받을지는 ticket 이 정하므로 executor 의 대기열은 제한하지 않는다. (executor 가 거절하면 429 가 아니라 500 이 된다)
+ * 싼 검색은 지금처럼 기본 executor 에서 바로 실행되어 비싼 검색에 밀리지 않는다.
+ * username CONTAINS 는 리포지토리와 같이 UsernameNgramIndex 가 후보를 좁혀줄 때만 싸다. (아니면 like '%x%' 전체 스캔)
+ */
+@Component
+public class SearchAdmission {
+
+    //이보다 짧은 접두사는 대소문자와 상관없이 회원 대부분에 맞는다
+    static final int MIN_PREFIX_LENGTH = 3;
+
+    private final QueryDeadlineExecutor queryDeadlineExecutor;
+    private final MeterRegistry meterRegistry;
+    private final UsernameNgramIndex usernameNgramIndex;
+    private final Timer expensiveTimer;
+
+    private final int concurrency;
+    private final int maxAgeRange;
+    private final int maxPageSize;
+    private final Semaphore tickets;
+    private final ThreadPoolTaskExecutor bulkhead;
+
+    public SearchAdmission(QueryDeadlineExecutor queryDeadlineExecutor,
+                           MeterRegistry meterRegistry,
+                           UsernameNgramIndex usernameNgramIndex,
+                           @Value("${querydsl.admission.expensive-concurrency:2}") int concurrency,
+                           @Value("${querydsl.admission.expensive-queue:8}") int queue,
+                           @Value("${querydsl.admission.max-age-range:10}") int maxAgeRange,
+                           @Value("${querydsl.admission.max-page-size:1000}") int maxPageSize) {
+        this.queryDeadlineExecutor = queryDeadlineExecutor;
+        this.meterRegistry = meterRegistry;
+        this.usernameNgramIndex = usernameNgramIndex;
+        this.expensiveTimer = meterRegistry.timer("member.search.expensive");
+        this.concurrency = concurrency;
+        this.maxAgeRange = maxAgeRange;
+        this.maxPageSize = maxPageSize;
+        this.tickets = new Semaphore(concurrency + queue);
+
+        this.bulkhead = new ThreadPoolTaskExecutor();
+        bulkhead.setCorePoolSize(concurrency);
+        bulkhead.setMaxPoolSize(concurrency);
+        bulkhead.setThreadNamePrefix("expensive-search-");
+        bulkhead.initialize();
+    }
+
+    public SearchCost classify(MemberSearchCondition condition, Pageable pageable) {
+        if (pageable != null && pageable.isPaged() && pageable.getPageSize() > maxPageSize) {
+            return SearchCost.EXPENSIVE;
+        }
+        return selective(condition) ? SearchCost.CHEAP : SearchCost.EXPENSIVE;
+    }
+
+    /**
+     * 비용에 따라 기본 executor 나 bulkhead 에서 마감시간을 걸고 실행한다.
+     *
+     * @throws SearchRejectedException bulkhead 가 가득 찬 비싼 검색
+     */
+    public <T> WebAsyncTask<T> submit(String endpoint, Duration timeout,
+                                      MemberSearchCondition condition, Pageable pageable, Callable<T> work) {
+        SearchCost cost = classify(condition, pageable);
+        meterRegistry.counter("member.search.admitted", "endpoint", endpoint, "cost", cost.name()).increment();
+        if (cost == SearchCost.CHEAP) {
+            return queryDeadlineExecutor.submit(endpoint, timeout, work);
+        }
+
+        if (!tickets.tryAcquire()) {
+            meterRegistry.counter("member.search.rejected", "endpoint", endpoint).increment();
+            throw new SearchRejectedException(retryAfter());
+        }
+        //실행을 시작한 작업은 끝날 때 반납하고, 시작하기 전에 요청이 끝나면(대기 중 타임아웃) 그 때 반납한다
+        AtomicBoolean claimed = new AtomicBoolean();
+        WebAsyncTask<T> task = queryDeadlineExecutor.submit(endpoint, timeout, bulkhead, () -> {
+            if (!claimed.compareAndSet(false, true)) {
+                return null; //요청이 이미 끝났다
+            }
+            try {
+                return expensiveTimer.recordCallable(work);
+            } finally {
+                tickets.release();
+            }
+        });
+        task.onCompletion(() -> {
+            if (claimed.compareAndSet(false, true)) {
+                tickets.release();
+            }
+        });
+        return task;
+    }
+
+    private boolean selective(MemberSearchCondition condition) {
+        String username = condition.getUsername();
+        if (hasText(username) && usernameSelective(condition, username)) {
+            return true;
+        }
+        if (hasText(condition.getTeamName())) {
+            return true;
+        }
+        Integer goe = condition.getAgeGoe();
+        Integer loe = condition.getAgeLoe();
+        return goe != null && loe != null && loe - goe <= maxAgeRange;
+    }
+
+    private boolean usernameSelective(MemberSearchCondition condition, String username) {
+        UsernameMatch match = condition.getUsernameMatch();
+        switch (match == null ? UsernameMatch.EXACT : match) {
+            case PREFIX:
+                return username.length() >= MIN_PREFIX_LENGTH;
+            case CONTAINS:
+                return usernameNgramIndex.narrows(condition.isIgnoreCase() ? Member.normalize(username) : username);
+            default:
+                return true;
+        }
+    }
+
+    //앞에 대기 중인 비싼 검색이 다 끝날 때까지 걸릴 시간, 최소 1초
+    private Duration retryAfter() {
+        int waiting = bulkhead.getThreadPoolExecutor().getQueue().size() + 1;
+        double mean = expensiveTimer.mean(TimeUnit.MILLISECONDS);
+        long millis = (long) Math.ceil(mean * waiting / concurrency);
+        return Duration.ofSeconds(Math.max(1, TimeUnit.MILLISECONDS.toSeconds(millis + 999)));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        bulkhead.shutdown();
+    }
+}
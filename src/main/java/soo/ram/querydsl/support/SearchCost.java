@@ -0,0 +1,6 @@
+package soo.ram.querydsl.support;
+
+public enum SearchCost {
+    CHEAP,
+    EXPENSIVE
+}
@@ -0,0 +1,105 @@
+package soo.ram.querydsl.support;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+import org.springframework.web.util.WebUtils;
+import soo.ram.querydsl.repository.ChangeVersionTracker;
+import soo.ram.querydsl.repository.MemberSqlRepository;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 검색 페이지(/v2/members, /v3/members) 응답 JSON 을 OffHeapPageCache 에 그대로 캐시한다.
+ * 맞으면 컨트롤러, admission, 쿼리, 직렬화를 모두 건너뛰고 캐시의 byte 를 응답에 바로 쓴다.
+ * <p>
+ * key 는 경로 + 쿼리스트링 + 커밋 세대(ChangeVersionTracker.commitGeneration) + 최대 change_version 이다.
+ * 커밋 세대는 이 인스턴스의 쓰기(벌크 update/delete, 먼저 버전을 받고 늦게 커밋한 쓰기 포함)가 커밋될 때마다 커지고,
+ * 최대 change_version(MemberSqlRepository.currentChangeVersion)은 다른 인스턴스의 쓰기도 잡는다.
+ * 둘 중 하나라도 바뀌면 새 key 가 되고, 예전 페이지는 LRU 로 빠진다.
+ * 200 JSON 응답만 넣는다. (타임아웃 503, 거절 429 는 넣지 않는다)
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "querydsl.page-cache.enabled", havingValue = "true")
+public class SearchPageCacheFilter extends OncePerRequestFilter {
+
+    static final Set<String> PATHS = new HashSet<>(Arrays.asList("/v2/members", "/v3/members"));
+
+    private static final String KEY_ATTRIBUTE = SearchPageCacheFilter.class.getName() + ".KEY";
+
+    private final OffHeapPageCache cache;
+    private final MemberSqlRepository memberSqlRepository;
+    private final ChangeVersionTracker changeVersionTracker;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !HttpMethod.GET.matches(request.getMethod()) || !PATHS.contains(request.getRequestURI());
+    }
+
+    //WebAsyncTask 로 끝나는 요청은 async dispatch 때 응답이 완성된다
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        HttpServletResponse responseToUse = response;
+        if (!isAsyncDispatch(request)) {
+            String key = key(request);
+            try (OffHeapPageCache.Hit hit = cache.get(key)) {
+                if (hit != null) {
+                    response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                    response.setContentLength(hit.length());
+                    hit.writeTo(Channels.newChannel(response.getOutputStream()));
+                    return;
+                }
+            }
+            request.setAttribute(KEY_ATTRIBUTE, key);
+            responseToUse = new ContentCachingResponseWrapper(response);
+        }
+
+        filterChain.doFilter(request, responseToUse);
+
+        if (isAsyncStarted(request)) {
+            return;
+        }
+        ContentCachingResponseWrapper wrapper =
+                WebUtils.getNativeResponse(responseToUse, ContentCachingResponseWrapper.class);
+        if (wrapper == null) {
+            return;
+        }
+        String key = (String) request.getAttribute(KEY_ATTRIBUTE);
+        if (key != null && wrapper.getStatus() == HttpStatus.OK.value() && isJson(wrapper.getContentType())) {
+            cache.put(key, wrapper.getContentInputStream(), wrapper.getContentSize());
+        }
+        wrapper.copyBodyToResponse();
+    }
+
+    private String key(HttpServletRequest request) {
+        //쿼리보다 먼저 읽는다. 그 사이 커밋된 쓰기는 예전 key 에 더 새 페이지가 들어갈 뿐이다
+        long generation = changeVersionTracker.commitGeneration();
+        String query = request.getQueryString();
+        return request.getRequestURI() + (query == null ? "" : "?" + query)
+                + "@" + generation + ":" + memberSqlRepository.currentChangeVersion();
+    }
+
+    private static boolean isJson(String contentType) {
+        return contentType != null && MediaType.APPLICATION_JSON.isCompatibleWith(MediaType.parseMediaType(contentType));
+    }
+}
@@ -0,0 +1,19 @@
+package soo.ram.querydsl.support;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * 비싼 검색용 bulkhead 가 가득 차서 받지 못한 요청. 429 + Retry-After 로 응답한다.
+ */
+@Getter
+public class SearchRejectedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public SearchRejectedException(Duration retryAfter) {
+        super("too many expensive searches, retry after " + retryAfter.getSeconds() + "s");
+        this.retryAfter = retryAfter;
+    }
+}
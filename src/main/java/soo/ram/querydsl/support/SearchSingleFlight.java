@@ -0,0 +1,102 @@
+package soo.ram.querydsl.support;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 같은 검색이 동시에 여러 번 들어오면 DB 에는 한번만 실행하고 결과를 같이 받는다. (single-flight)
+ * 먼저 온 요청(leader)이 쿼리를 실행하고, 실행 중에 같은 key 로 들어온 요청은 그 결과를 기다린다.
+ * 끝난 결과를 캐시하지는 않는다. 실행이 끝나면 다음 요청은 다시 DB 에서 읽는다.
+ * <ul>
+ * <li>트랜잭션 안의 호출은 커밋 안 된 자기 변경을 봐야 하므로 합치지 않는다.</li>
+ * <li>leader 가 실패(타임아웃, 취소 포함)하면 기다리던 요청도 같은 예외를 받는다.</li>
+ * <li>기다리는 요청은 자기 QueryDeadline 까지만 기다린다.</li>
+ * <li>결과 객체를 같이 쓰므로 받은 쪽에서 고치면 안 된다.</li>
+ * </ul>
+ */
+@Component
+public class SearchSingleFlight {
+
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+
+    public SearchSingleFlight(MeterRegistry meterRegistry,
+                              @Value("${querydsl.single-flight.enabled:true}") boolean enabled) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param operation 메트릭 태그와 key 앞부분 (search, searchPageSimple ...)
+     * @param key       같은 결과를 내는 요청이면 같은 값 (검색 조건, 페이지)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String operation, String key, Supplier<T> query) {
+        if (!enabled || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return query.get();
+        }
+        String flightKey = operation + ":" + key;
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(flightKey, mine);
+        if (running != null) {
+            counter(operation, "joined").increment(); //아낀 실행 수
+            return (T) await(running);
+        }
+
+        counter(operation, "executed").increment();
+        try {
+            T result = query.get();
+            mine.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(flightKey, mine);
+        }
+    }
+
+    int inFlight() {
+        return inFlight.size();
+    }
+
+    private static Object await(CompletableFuture<Object> running) {
+        QueryDeadline deadline = QueryDeadline.current();
+        try {
+            return deadline == null
+                    ? running.get()
+                    : running.get(Math.max(0, deadline.remainingMillis()), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (TimeoutException e) {
+            throw new QueryTimeoutException("query deadline exceeded while waiting for an identical search");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryTimeoutException("interrupted while waiting for an identical search");
+        }
+    }
+
+    private Counter counter(String operation, String result) {
+        return meterRegistry.counter("member.search.single-flight", "operation", operation, "result", result);
+    }
+}
@@ -0,0 +1,137 @@
+package soo.ram.querydsl.support;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.metrics.ApplicationStartup;
+import org.springframework.core.metrics.StartupStep;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import soo.ram.querydsl.dto.MemberSearchCondition;
+import soo.ram.querydsl.dto.UsernameMatch;
+import soo.ram.querydsl.repository.MemberJpaRepository;
+import soo.ram.querydsl.repository.MemberRepository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * 시작할 때 search/searchPage* 를 검색 조건 조합마다 한번씩 실행해서
+ * Hibernate 쿼리 플랜 캐시, DB statement 캐시, JIT 를 미리 데워둔다.
+ * ApplicationRunner 는 readiness 가 ACCEPTING_TRAFFIC 으로 바뀌기 전에 실행되므로
+ * 워밍업이 끝나야 /actuator/health/readiness 가 UP 이 된다.
+ * 조건 값은 아무것도 맞지 않는 값을 쓰고, 쿼리마다 queryTimeout 마감을 건다. (큰 테이블 풀스캔 방지)
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "querydsl.warmup.enabled", havingValue = "true", matchIfMissing = true)
+public class SearchWarmup implements ApplicationRunner {
+
+    static final String NO_MATCH = "__warmup__";
+
+    private final MemberJpaRepository memberJpaRepository;
+    private final MemberRepository memberRepository;
+    private final MeterRegistry meterRegistry;
+    private final ApplicationStartup applicationStartup;
+    private final int iterations;
+    private final Duration queryTimeout;
+
+    public SearchWarmup(MemberJpaRepository memberJpaRepository,
+                        MemberRepository memberRepository,
+                        MeterRegistry meterRegistry,
+                        ApplicationStartup applicationStartup,
+                        @Value("${querydsl.warmup.iterations:1}") int iterations,
+                        @Value("${querydsl.warmup.query-timeout:1s}") Duration queryTimeout) {
+        this.memberJpaRepository = memberJpaRepository;
+        this.memberRepository = memberRepository;
+        this.meterRegistry = meterRegistry;
+        this.applicationStartup = applicationStartup;
+        this.iterations = iterations;
+        this.queryTimeout = queryTimeout;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long start = System.nanoTime();
+        StartupStep step = applicationStartup.start("querydsl.search.warmup");
+        List<MemberSearchCondition> conditions = conditions();
+        PageRequest page = PageRequest.of(0, 1);
+        int queries = 0;
+        int timedOut = 0;
+        try {
+            for (int i = 0; i < iterations; i++) {
+                for (MemberSearchCondition condition : conditions) {
+                    //조건이 하나도 없는 search 는 전체 조회라 페이지 조회로만 데운다
+                    if (hasFilter(condition)) {
+                        timedOut += execute(() -> memberJpaRepository.search(condition));
+                        timedOut += execute(() -> memberRepository.search(condition));
+                        queries += 2;
+                    }
+                    timedOut += execute(() -> memberRepository.searchPageSimple(condition, page));
+                    timedOut += execute(() -> memberRepository.searchPageComplex(condition, page));
+                    queries += 2;
+                }
+            }
+        } finally {
+            step.tag("calls", String.valueOf(queries)).end();
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+        meterRegistry.timer("member.search.warmup").record(elapsed);
+        log.info("search warm-up: {} conditions, {} calls ({} timed out) in {} ms",
+                conditions.size(), queries, timedOut, elapsed.toMillis());
+    }
+
+    /**
+     * username(없음, EXACT/PREFIX/CONTAINS x 대소문자 구분/무시) x teamName x ageGoe x ageLoe 의 모든 조합
+     */
+    static List<MemberSearchCondition> conditions() {
+        List<MemberSearchCondition> conditions = new ArrayList<>();
+        List<UsernameMatch> matches = new ArrayList<>();
+        matches.add(null);
+        matches.addAll(List.of(UsernameMatch.values()));
+
+        for (UsernameMatch match : matches) {
+            for (boolean ignoreCase : new boolean[]{false, true}) {
+                if (match == null && ignoreCase) {
+                    continue;
+                }
+                for (int mask = 0; mask < 8; mask++) {
+                    MemberSearchCondition condition = new MemberSearchCondition();
+                    if (match != null) {
+                        condition.setUsername(NO_MATCH);
+                        condition.setUsernameMatch(match);
+                        condition.setIgnoreCase(ignoreCase);
+                    }
+                    condition.setTeamName((mask & 1) != 0 ? NO_MATCH : null);
+                    condition.setAgeGoe((mask & 2) != 0 ? 200 : null);
+                    condition.setAgeLoe((mask & 4) != 0 ? -1 : null);
+                    conditions.add(condition);
+                }
+            }
+        }
+        return conditions;
+    }
+
+    private static boolean hasFilter(MemberSearchCondition condition) {
+        return condition.getUsername() != null || condition.getTeamName() != null
+                || condition.getAgeGoe() != null || condition.getAgeLoe() != null;
+    }
+
+    //마감시간이 지나 취소된 쿼리도 파싱과 플랜 캐시는 이미 끝났으므로 무시한다
+    private int execute(Callable<?> query) {
+        try {
+            new QueryDeadline(queryTimeout).call(query);
+            return 0;
+        } catch (QueryTimeoutException e) {
+            return 1;
+        } catch (Exception e) {
+            throw new IllegalStateException("search warm-up failed", e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package soo.ram.querydsl.support;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.actuate.health.HealthEndpoint;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.boot.context.metrics.buffering.StartupTimeline;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.metrics.ApplicationStartup;
+import org.springframework.core.metrics.StartupStep;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+/**
+ * 기동 시간 분석용 설정.
+ * <pre>
+ * -Dquerydsl.startup.profile=true (또는 --querydsl.startup.profile=true)
+ *   빈 생성, EntityManagerFactory(Hibernate 메타모델), 시드/인덱스/워밍업 단계를 기록해서
+ *   ready 때 오래 걸린 단계를 로그로 남기고 POST /actuator/startup 으로 전체 타임라인을 준다.
+ * spring.profiles.active=lazy
+ *   요청 경로에 필요한 빈(DataSource, EntityManagerFactory, 컨트롤러, health)만 미리 만들고
+ *   나머지(배치, 샤딩, write-behind, 데이터 생성기 ...)는 처음 쓸 때 만든다.
+ * </pre>
+ */
+@Slf4j
+@Configuration
+@RequiredArgsConstructor
+public class StartupProfiling {
+
+    static final String PROFILE_PROPERTY = "querydsl.startup.profile";
+    static final String CAPACITY_PROPERTY = "querydsl.startup.capacity";
+
+    private final ApplicationStartup applicationStartup;
+
+    @Value("${querydsl.startup.report-size:20}")
+    private int reportSize;
+
+    /**
+     * ApplicationStartup 은 컨텍스트보다 먼저 정해져야 해서 application.yml 이 아니라
+     * 시스템 프로퍼티, 환경변수, 커맨드라인 인자로만 켤 수 있다.
+     */
+    public static void configure(SpringApplication application, String... args) {
+        StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new SimpleCommandLinePropertySource(args));
+        if (environment.getProperty(PROFILE_PROPERTY, Boolean.class, false)) {
+            application.setApplicationStartup(new BufferingApplicationStartup(
+                    environment.getProperty(CAPACITY_PROPERTY, Integer.class, 10_000)));
+        }
+    }
+
+    /**
+     * spring.main.lazy-initialization=true 일 때도 미리 만들 빈.
+     * 메타모델 빌드나 첫 요청의 컨트롤러 체인 생성이 첫 사용자 요청으로 밀리지 않게 한다.
+     */
+    @Bean
+    static LazyInitializationExcludeFilter eagerRequestPathBeans() {
+        return (beanName, definition, beanType) -> beanType != null
+                && (DataSource.class.isAssignableFrom(beanType)
+                || EntityManagerFactory.class.isAssignableFrom(beanType)
+                || HealthEndpoint.class.isAssignableFrom(beanType)
+                || AnnotatedElementUtils.hasAnnotation(beanType, RestController.class));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void report() {
+        if (!(applicationStartup instanceof BufferingApplicationStartup)) {
+            return;
+        }
+        //getBufferedTimeline 은 버퍼를 비우지 않아서 /actuator/startup 에서 다시 볼 수 있다
+        StartupTimeline timeline = ((BufferingApplicationStartup) applicationStartup).getBufferedTimeline();
+        String slowest = timeline.getEvents().stream()
+                .sorted(Comparator.comparing(StartupTimeline.TimelineEvent::getDuration).reversed())
+                .limit(reportSize)
+                .map(event -> String.format("%n  %6d ms  %s%s", event.getDuration().toMillis(),
+                        event.getStartupStep().getName(), tags(event.getStartupStep())))
+                .collect(Collectors.joining());
+        log.info("startup profile: {} steps recorded, slowest {}:{}",
+                timeline.getEvents().size(), reportSize, slowest);
+    }
+
+    private static String tags(StartupStep step) {
+        String tags = StreamSupport.stream(step.getTags().spliterator(), false)
+                .map(tag -> tag.getKey() + "=" + tag.getValue())
+                .collect(Collectors.joining(", "));
+        return tags.isEmpty() ? "" : " [" + tags + "]";
+    }
+}
@@ -0,0 +1,105 @@
+package soo.ram.querydsl.batch;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+import soo.ram.querydsl.entity.BatchCheckpoint;
+import soo.ram.querydsl.entity.Member;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static soo.ram.querydsl.entity.QMember.member;
+
+/**
+ * 청크는 다른 커넥션에서 커밋되므로 테스트 데이터는 커밋하고 끝나면 지운다.
+ */
+@SpringBootTest(properties = {"querydsl.batch.chunk-size=5", "querydsl.batch.workers=2"})
+class MemberBatchRunnerTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate tx;
+
+    @Autowired
+    MemberBatchRunner memberBatchRunner;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void before() {
+        tx.executeWithoutResult(status -> {
+            for (int i = 0; i < 40; i++) {
+                em.persist(new Member("batch" + i, 0));
+            }
+        });
+    }
+
+    @AfterEach
+    public void after() {
+        tx.executeWithoutResult(status -> {
+            em.createQuery("delete from Member m where m.userName like 'batch%'").executeUpdate();
+            em.createQuery("delete from BatchCheckpoint").executeUpdate();
+        });
+    }
+
+    @Test
+    public void processAllInChunks() {
+        MemberBatchResult result = memberBatchRunner.run("birthday", member.userName.startsWith("batch"),
+                (chunk, em) -> chunk.forEach(m -> m.setAge(m.getAge() + 1)));
+
+        assertThat(result.getProcessed()).isEqualTo(40);
+        assertThat(result.getChunks()).isEqualTo(8);
+        assertThat(ages()).containsOnly(1);
+        BatchCheckpoint checkpoint = tx.execute(status -> em.find(BatchCheckpoint.class, "birthday"));
+        assertThat(checkpoint).isNull();
+        assertThat(meterRegistry.get("member.batch.items").tag("job", "birthday").counter().count()).isEqualTo(40);
+        assertThat(meterRegistry.get("member.batch.lag").tag("job", "birthday").gauge().value()).isZero();
+    }
+
+    @Test
+    public void restartFromCheckpoint() {
+        assertThatThrownBy(() -> memberBatchRunner.run("restart", member.userName.startsWith("batch"), (chunk, em) -> {
+            chunk.forEach(m -> {
+                if (m.getUserName().equals("batch22")) {
+                    throw new IllegalStateException("boom");
+                }
+                m.setAge(m.getAge() + 1);
+            });
+        })).isInstanceOf(MemberBatchException.class);
+
+        BatchCheckpoint checkpoint = tx.execute(status -> em.find(BatchCheckpoint.class, "restart"));
+        assertThat(checkpoint.getProcessed()).isLessThanOrEqualTo(20); //batch22 가 든 청크 앞까지만
+
+        MemberBatchResult result = memberBatchRunner.run("restart", member.userName.startsWith("batch"),
+                (chunk, em) -> chunk.forEach(m -> m.setAge(m.getAge() + 1)));
+
+        assertThat(result.getProcessed()).isEqualTo(40 - checkpoint.getProcessed());
+        List<Member> members = tx.execute(status -> em
+                .createQuery("select m from Member m where m.userName like 'batch%' order by m.id", Member.class)
+                .getResultList());
+        //체크포인트까지는 한번만, 그 뒤는 최소 한번 (at-least-once)
+        assertThat(members).allSatisfy(m -> {
+            if (m.getId() <= checkpoint.getLastMemberId()) {
+                assertThat(m.getAge()).isEqualTo(1);
+            } else {
+                assertThat(m.getAge()).isBetween(1, 2);
+            }
+        });
+    }
+
+    private List<Integer> ages() {
+        return tx.execute(status -> em
+                .createQuery("select m.age from Member m where m.userName like 'batch%'", Integer.class)
+                .getResultList());
+    }
+}
@@ -0,0 +1,86 @@
+package soo.ram.querydsl.benchmark;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+import soo.ram.querydsl.generator.MemberDataGenerator;
+import soo.ram.querydsl.generator.MemberDataSpec;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * /v3/members 페이지를 처음 요청할 때(조회 + 직렬화 + 캐시에 넣기)와 다시 요청할 때(off-heap 에서 바로 쓰기)를 비교한다.
+ * 서버로 요청하므로 데이터는 커밋하고 끝나면 지운다.
+ * mvn test -Pbenchmark
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "querydsl.page-cache.enabled=true")
+class PageCacheBenchmark {
+
+    static final int PAGES = 20;
+    static final int PAGE_SIZE = 500;
+
+    @Autowired
+    TestRestTemplate rest;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate tx;
+
+    @Autowired
+    MemberDataGenerator generator;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    List<Long> teamIds = new ArrayList<>();
+
+    @AfterEach
+    public void after() {
+        tx.executeWithoutResult(status -> {
+            em.createQuery("delete from Member m where m.team.id in :teamIds")
+                    .setParameter("teamIds", teamIds).executeUpdate();
+            em.createQuery("delete from Team t where t.id in :teamIds")
+                    .setParameter("teamIds", teamIds).executeUpdate();
+        });
+    }
+
+    @Test
+    public void missVsHit() {
+        MemberDataSpec spec = new MemberDataSpec();
+        spec.setMemberCount(100_000);
+        spec.setTeamCount(100);
+        spec.setUsernameLength(20);
+        teamIds.addAll(generator.generate(spec));
+
+        long miss = round();
+        long hit = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            hit = Math.min(hit, round());
+        }
+        System.out.printf("pages=%d size=%d miss=%.2fms/page hit=%.2fms/page off-heap used=%dKB hit-ratio=%.2f%n",
+                PAGES, PAGE_SIZE, miss / 1e6 / PAGES, hit / 1e6 / PAGES,
+                (long) meterRegistry.get("member.search.page-cache.memory.used").gauge().value() / 1024,
+                meterRegistry.get("member.search.page-cache.hit-ratio").gauge().value());
+    }
+
+    private long round() {
+        long start = System.nanoTime();
+        for (int page = 0; page < PAGES; page++) {
+            String body = rest.getForObject("/v3/members?ageGoe=0&ageLoe=9&page=" + page + "&size=" + PAGE_SIZE,
+                    String.class);
+            if (body == null || !body.contains("\"content\"")) {
+                throw new IllegalStateException(body);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,166 @@
+package soo.ram.querydsl.benchmark;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.SignalType;
+import soo.ram.querydsl.dto.MemberSearchCondition;
+import soo.ram.querydsl.dto.MemberTeamDto;
+import soo.ram.querydsl.generator.MemberDataGenerator;
+import soo.ram.querydsl.generator.MemberDataSpec;
+import soo.ram.querydsl.reactive.MemberReactiveRepository;
+import soo.ram.querydsl.repository.MemberRepository;
+
+import javax.persistence.EntityManager;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 느린 클라이언트 N명이 같은 큰 검색을 받는 중간 시점의 힙과 스레드를 비교한다.
+ * blocking(search -> List): 클라이언트마다 스레드 하나가 전체 결과를 들고 기다린다.
+ * reactive(MemberReactiveRepository): 클라이언트가 요청한 만큼만 청크로 읽고 멈춰 있어서 스레드를 잡지 않는다.
+ * R2DBC 는 다른 커넥션이라 데이터는 커밋하고 끝나면 지운다.
+ * 같은 검색이 합쳐지지 않게 single-flight 는 끈다.
+ * mvn test -Pbenchmark
+ */
+@SpringBootTest(properties = "querydsl.single-flight.enabled=false")
+class ReactiveSearchBenchmark {
+
+    static final int CLIENTS = 8;
+    static final int MEMBERS = 50_000;
+    static final int READ_BEFORE_PAUSE = 1_000;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate tx;
+
+    @Autowired
+    MemberDataGenerator generator;
+
+    @Autowired
+    MemberRepository memberRepository;
+
+    @Autowired
+    MemberReactiveRepository memberReactiveRepository;
+
+    List<Long> teamIds = new ArrayList<>();
+
+    @AfterEach
+    public void after() {
+        tx.executeWithoutResult(status -> {
+            em.createQuery("delete from Member m where m.team.id in :teamIds")
+                    .setParameter("teamIds", teamIds).executeUpdate();
+            em.createQuery("delete from Team t where t.id in :teamIds")
+                    .setParameter("teamIds", teamIds).executeUpdate();
+        });
+    }
+
+    @Test
+    public void slowClients() throws Exception {
+        MemberDataSpec spec = new MemberDataSpec();
+        spec.setMemberCount(MEMBERS);
+        spec.setTeamCount(100);
+        spec.setUsernameLength(20);
+        teamIds.addAll(generator.generate(spec));
+
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setAgeGoe(0);
+
+        for (int round = 0; round < 2; round++) {
+            blocking(condition);
+            reactive(condition);
+        }
+    }
+
+    private void blocking(MemberSearchCondition condition) throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        CountDownLatch fetched = new CountDownLatch(CLIENTS);
+        CountDownLatch release = new CountDownLatch(1);
+        long heap = usedHeap();
+        int threads = liveThreads();
+        long start = System.nanoTime();
+        for (int i = 0; i < CLIENTS; i++) {
+            clients.submit(() -> {
+                List<MemberTeamDto> rows = memberRepository.search(condition);
+                fetched.countDown();
+                release.await(); //느린 클라이언트에 쓰는 중
+                return rows.size();
+            });
+        }
+        fetched.await();
+        long held = usedHeap() - heap;
+        int pinned = liveThreads() - threads;
+        release.countDown();
+        clients.shutdown();
+        clients.awaitTermination(1, TimeUnit.MINUTES);
+        print("blocking", held, pinned, System.nanoTime() - start);
+    }
+
+    private void reactive(MemberSearchCondition condition) throws Exception {
+        CountDownLatch paused = new CountDownLatch(CLIENTS);
+        CountDownLatch completed = new CountDownLatch(CLIENTS);
+        List<BaseSubscriber<MemberTeamDto>> clients = new ArrayList<>();
+        long heap = usedHeap();
+        int threads = liveThreads();
+        long start = System.nanoTime();
+        for (int i = 0; i < CLIENTS; i++) {
+            AtomicInteger received = new AtomicInteger();
+            BaseSubscriber<MemberTeamDto> client = new BaseSubscriber<MemberTeamDto>() {
+                @Override
+                protected void hookOnSubscribe(Subscription subscription) {
+                    request(READ_BEFORE_PAUSE);
+                }
+
+                @Override
+                protected void hookOnNext(MemberTeamDto value) {
+                    if (received.incrementAndGet() == READ_BEFORE_PAUSE) {
+                        paused.countDown();
+                    }
+                }
+
+                @Override
+                protected void hookFinally(SignalType type) {
+                    completed.countDown();
+                }
+            };
+            clients.add(client);
+            memberReactiveRepository.search(condition).subscribe(client);
+        }
+        paused.await(1, TimeUnit.MINUTES);
+        long held = usedHeap() - heap;
+        int pinned = liveThreads() - threads;
+        clients.forEach(client -> client.requestUnbounded());
+        completed.await(1, TimeUnit.MINUTES);
+        print("reactive", held, pinned, System.nanoTime() - start);
+    }
+
+    private static void print(String name, long heldBytes, int threads, long elapsedNanos) {
+        System.out.printf("%-8s clients=%d members=%d heap held while clients are slow=%dMB, " +
+                        "extra threads=%d, all delivered in %dms%n",
+                name, CLIENTS, MEMBERS, heldBytes / 1024 / 1024, threads, elapsedNanos / 1_000_000);
+    }
+
+    private static int liveThreads() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,72 @@
+package soo.ram.querydsl.benchmark;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import soo.ram.querydsl.entity.Member;
+import soo.ram.querydsl.generator.MemberDataGenerator;
+import soo.ram.querydsl.generator.MemberDataSpec;
+import soo.ram.querydsl.repository.MemberJpaRepository;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 큰 findAll 을 보통 조회와 읽기 전용 조회(org.hibernate.readOnly)로 비교한다.
+ * 영속성 컨텍스트까지 포함한 힙 사용량과 그 상태에서의 flush 시간을 잰다.
+ * mvn test -Pbenchmark
+ */
+@SpringBootTest
+@Transactional
+class ReadOnlyBenchmark {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    MemberDataGenerator generator;
+
+    @Autowired
+    MemberJpaRepository memberJpaRepository;
+
+    @Test
+    public void managedVsReadOnlyFindAll() {
+        MemberDataSpec spec = new MemberDataSpec();
+        spec.setMemberCount(200_000);
+        spec.setTeamCount(100);
+        spec.setUsernameLength(20);
+        generator.generate(spec);
+        em.flush();
+        em.clear();
+
+        for (int i = 0; i < 2; i++) {
+            measure("findAll_Querydsl", () -> memberJpaRepository.findAll_Querydsl());
+            measure("findAll_QuerydslReadOnly", () -> memberJpaRepository.findAll_QuerydslReadOnly());
+            measure("findAll_QuerydslStateless", () -> memberJpaRepository.findAll_QuerydslStateless());
+        }
+    }
+
+    private void measure(String name, Supplier<List<Member>> query) {
+        long before = usedHeap();
+        List<Member> members = query.get();
+        long after = usedHeap();
+
+        long start = System.nanoTime();
+        em.flush();
+        long flush = System.nanoTime() - start;
+
+        System.out.printf("%-26s members=%d heap=%dMB (%d bytes/member) flush=%dms%n", name, members.size(),
+                (after - before) / 1024 / 1024, (after - before) / members.size(), flush / 1_000_000);
+        em.clear();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,85 @@
+package soo.ram.querydsl.benchmark;
+
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import soo.ram.querydsl.entity.QMember;
+import soo.ram.querydsl.generator.MemberDataGenerator;
+import soo.ram.querydsl.generator.MemberDataSpec;
+import soo.ram.querydsl.repository.MemberJpaRepository;
+import soo.ram.querydsl.support.SqlCapture;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+
+import static com.querydsl.jpa.JPAExpressions.select;
+import static soo.ram.querydsl.entity.QMember.member;
+
+/**
+ * 팀별 최대 나이를 상관 스칼라 서브쿼리(행마다 평가)로 붙일 때와
+ * group by 1번으로 미리 집계해서 붙일 때(MemberJpaRepository.findUserDtoWithTeamMaxAge)를 비교한다.
+ * 시간과 실행한 SQL 문 수(SqlCapture)를 찍는다. H2 는 서브쿼리를 몇 번 평가했는지 알려주지 않아서 평가 횟수는 찍지 않는다.
+ * mvn test -Pbenchmark
+ */
+@SpringBootTest
+@Transactional
+class ScalarSubqueryBenchmark {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    MemberDataGenerator generator;
+
+    @Autowired
+    MemberJpaRepository memberJpaRepository;
+
+    @Test
+    public void correlatedSubqueryVsPreAggregated() {
+        JPAQueryFactory queryFactory = new JPAQueryFactory(em);
+        QMember memberSub = new QMember("memberSub");
+
+        for (int rows : new int[]{1_000, 3_000, 12_000}) {
+            MemberDataSpec spec = new MemberDataSpec();
+            spec.setSeed(rows);
+            spec.setMemberCount(rows);
+            spec.setTeamCount(rows / 50);
+            spec.setTeamSkew(1.0);
+            generator.generate(spec);
+            Long members = queryFactory.select(member.count()).from(member).fetchOne();
+
+            Runnable correlated = () -> queryFactory
+                    .select(member.userName, select(memberSub.age.max())
+                            .from(memberSub)
+                            .where(memberSub.team.eq(member.team)))
+                    .from(member)
+                    .fetch();
+            Runnable preAggregated = () -> memberJpaRepository.findUserDtoWithTeamMaxAge();
+
+            System.out.printf("generated=%d members=%d correlated subquery=%dms (%d statements), " +
+                            "pre-aggregated=%dms (%d statements)%n",
+                    rows, members, measure(correlated), statements(correlated),
+                    measure(preAggregated), statements(preAggregated));
+        }
+    }
+
+    private int statements(Runnable query) {
+        int count = SqlCapture.capture(query).size();
+        em.clear();
+        return count;
+    }
+
+    private long measure(Runnable query) {
+        query.run(); //warm-up
+        em.clear();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            query.run();
+            best = Math.min(best, System.nanoTime() - start);
+            em.clear();
+        }
+        return best / 1_000_000;
+    }
+}
@@ -0,0 +1,79 @@
+package soo.ram.querydsl.benchmark;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import soo.ram.querydsl.dto.MemberSearchCondition;
+import soo.ram.querydsl.generator.MemberDataGenerator;
+import soo.ram.querydsl.generator.MemberDataSpec;
+import soo.ram.querydsl.repository.MemberRepository;
+import soo.ram.querydsl.repository.MemberSqlRepository;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+
+/**
+ * MemberRepository 검색을 JPA(JPQL -> Hibernate) 경로와 querydsl-sql 경로로 비교한다.
+ * mvn test -Pbenchmark
+ */
+@SpringBootTest
+@Transactional
+class SqlBackendBenchmark {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    MemberDataGenerator generator;
+
+    @Autowired
+    MemberRepository memberRepository;
+
+    @Autowired
+    MemberSqlRepository memberSqlRepository;
+
+    @Test
+    public void jpaVsSql() {
+        MemberDataSpec spec = new MemberDataSpec();
+        spec.setMemberCount(100_000);
+        spec.setTeamCount(100);
+        generator.generate(spec);
+
+        MemberSearchCondition all = new MemberSearchCondition();
+        MemberSearchCondition ages = new MemberSearchCondition();
+        ages.setAgeGoe(20);
+        ages.setAgeLoe(40);
+        PageRequest page = PageRequest.of(50, 100);
+
+        report("search (all rows)",
+                measure(() -> memberRepository.search(all)),
+                measure(() -> memberSqlRepository.search(all)));
+        report("search (age 20~40)",
+                measure(() -> memberRepository.search(ages)),
+                measure(() -> memberSqlRepository.search(ages)));
+        report("searchPageSimple (count + content / count(*) over())",
+                measure(() -> memberRepository.searchPageSimple(ages, page)),
+                measure(() -> memberSqlRepository.searchPageSimple(ages, page)));
+        report("searchPageComplex",
+                measure(() -> memberRepository.searchPageComplex(ages, page)),
+                measure(() -> memberSqlRepository.searchPageComplex(ages, page)));
+    }
+
+    private void report(String name, long jpa, long sql) {
+        System.out.printf("%-55s jpa=%dms sql=%dms%n", name, jpa, sql);
+    }
+
+    private long measure(Runnable query) {
+        query.run(); //warm-up
+        em.clear();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            query.run();
+            best = Math.min(best, System.nanoTime() - start);
+            em.clear();
+        }
+        return best / 1_000_000;
+    }
+}
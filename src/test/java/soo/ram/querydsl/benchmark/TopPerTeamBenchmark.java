@@ -0,0 +1,101 @@
+package soo.ram.querydsl.benchmark;
+
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import soo.ram.querydsl.dto.TeamRankOrder;
+import soo.ram.querydsl.entity.Member;
+import soo.ram.querydsl.generator.MemberDataGenerator;
+import soo.ram.querydsl.generator.MemberDataSpec;
+import soo.ram.querydsl.repository.MemberJpaRepository;
+import soo.ram.querydsl.repository.MemberSqlRepository;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static soo.ram.querydsl.entity.QMember.member;
+import static soo.ram.querydsl.entity.QTeam.team;
+
+/**
+ * 팀별 나이 많은 3명을 가져오는 4가지 방법 비교. (팀 수 1,000 / 5,000, 팀당 평균 10명)
+ * 팀마다 쿼리 / 전부 읽어서 자바 정렬 / 상관 count 서브쿼리(JPA) / row_number 윈도우 함수(querydsl-sql)
+ * mvn test -Pbenchmark
+ */
+@SpringBootTest
+@Transactional
+class TopPerTeamBenchmark {
+
+    static final int TOP = 3;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    MemberDataGenerator generator;
+
+    @Autowired
+    MemberJpaRepository memberJpaRepository;
+
+    @Autowired
+    MemberSqlRepository memberSqlRepository;
+
+    @Test
+    public void topPerTeam() {
+        JPAQueryFactory queryFactory = new JPAQueryFactory(em);
+
+        for (int teams : new int[]{1_000, 5_000}) {
+            MemberDataSpec spec = new MemberDataSpec();
+            spec.setSeed(teams);
+            spec.setMemberCount(teams * 10);
+            spec.setTeamCount(teams);
+            List<Long> teamIds = generator.generate(spec);
+
+            long perTeam = measure(() -> teamIds.stream()
+                    .flatMap(teamId -> queryFactory
+                            .selectFrom(member)
+                            .where(member.team.id.eq(teamId))
+                            .orderBy(member.age.desc(), member.id.asc())
+                            .limit(TOP)
+                            .fetch().stream())
+                    .count());
+            long inMemory = measure(() -> queryFactory
+                    .selectFrom(member)
+                    .join(member.team, team).fetchJoin()
+                    .fetch().stream()
+                    .collect(Collectors.groupingBy(m -> m.getTeam().getId(), Collectors.collectingAndThen(
+                            Collectors.toList(),
+                            list -> list.stream()
+                                    .sorted(Comparator.comparing(Member::getAge).reversed()
+                                            .thenComparing(Member::getId))
+                                    .limit(TOP)
+                                    .collect(Collectors.toList()))))
+                    .values().stream().mapToLong(List::size).sum());
+            long correlated = measure(() -> (long) memberJpaRepository.findTopPerTeam(TeamRankOrder.OLDEST, TOP).size());
+            long window = measure(() -> (long) memberSqlRepository.findTopPerTeam(TeamRankOrder.OLDEST, TOP).size());
+
+            System.out.printf("teams=%d members=%d rows=%d/%d per-team queries=%dms, load all + sort=%dms, " +
+                    "correlated count=%dms, row_number=%dms%n", teams, teams * 10,
+                    memberJpaRepository.findTopPerTeam(TeamRankOrder.OLDEST, TOP).size(),
+                    memberSqlRepository.findTopPerTeam(TeamRankOrder.OLDEST, TOP).size(),
+                    perTeam, inMemory, correlated, window);
+        }
+    }
+
+    private long measure(Supplier<Long> query) {
+        query.get(); //warm-up
+        em.clear();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            query.get();
+            best = Math.min(best, System.nanoTime() - start);
+            em.clear();
+        }
+        return best / 1_000_000;
+    }
+}
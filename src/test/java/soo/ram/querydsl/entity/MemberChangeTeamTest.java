@@ -0,0 +1,93 @@
+package soo.ram.querydsl.entity;
+
+import org.hibernate.Hibernate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import soo.ram.querydsl.support.SqlCapture;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Member.changeTeam 이 Team.member 컬렉션(팀의 모든 회원)을 로딩하지 않는지 SQL 로 확인한다.
+ */
+@SpringBootTest
+@Transactional
+class MemberChangeTeamTest {
+
+    @Autowired
+    EntityManager em;
+
+    Long bigTeamId;
+
+    @BeforeEach
+    public void before() {
+        Team big = new Team("big");
+        em.persist(big);
+        for (int i = 0; i < 1000; i++) {
+            em.persist(new Member("big" + i, i % 100, big));
+        }
+        em.flush();
+        em.clear();
+        bigTeamId = big.getId();
+    }
+
+    @Test
+    public void joinLargeTeam() {
+        Team big = em.find(Team.class, bigTeamId);
+
+        List<String> sql = SqlCapture.capture(() -> em.persist(new Member("newcomer", 20, big)));
+
+        assertThat(sql).noneMatch(statement -> statement.contains("from member"));
+        assertThat(Hibernate.isInitialized(big.getMember())).isFalse();
+
+        em.flush();
+        em.clear();
+        assertThat(em.find(Team.class, bigTeamId).getMember()).hasSize(1001);
+    }
+
+    @Test
+    public void joinLargeTeamByReference() {
+        Team big = em.getReference(Team.class, bigTeamId);
+
+        //팀 프록시 초기화(team 조회 1번)만 있고 회원 컬렉션은 읽지 않는다
+        List<String> sql = SqlCapture.capture(() -> em.persist(new Member("newcomer", 20, big)));
+
+        assertThat(sql).noneMatch(statement -> statement.contains("from member"));
+        assertThat(Hibernate.isInitialized(big.getMember())).isFalse();
+    }
+
+    @Test
+    public void leaveLargeTeam() {
+        Member member = em.createQuery("select m from Member m where m.userName = 'big0'", Member.class)
+                .getSingleResult();
+        Team other = new Team("other");
+        em.persist(other);
+
+        List<String> sql = SqlCapture.capture(() -> member.changeTeam(other));
+
+        assertThat(sql).isEmpty();
+        assertThat(other.getMember()).containsExactly(member);
+        em.flush();
+        em.clear();
+        assertThat(em.find(Team.class, bigTeamId).getMember()).hasSize(999);
+    }
+
+    @Test
+    public void loadedCollectionStaysInSync() {
+        Team big = em.find(Team.class, bigTeamId);
+        Member member = big.getMember().get(0); //컬렉션 로딩
+        Team other = new Team("other");
+        em.persist(other);
+
+        member.changeTeam(other);
+
+        assertThat(big.getMember()).hasSize(999).doesNotContain(member);
+        assertThat(other.getMember()).containsExactly(member);
+    }
+}
@@ -0,0 +1,93 @@
+package soo.ram.querydsl.generator;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static soo.ram.querydsl.entity.QMember.member;
+import static soo.ram.querydsl.entity.QTeam.team;
+
+@SpringBootTest
+@Transactional
+class MemberDataGeneratorTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    MemberDataGenerator generator;
+
+    @Test
+    public void sameSeedSameData() {
+        MemberDataSpec spec = new MemberDataSpec();
+        spec.setSeed(42);
+        spec.setMemberCount(500);
+        spec.setTeamCount(10);
+        spec.setTeamSkew(1.0);
+        spec.setAgeDistribution(AgeDistribution.NORMAL);
+        spec.setUsernameCardinality(50);
+
+        List<String> first = new ArrayList<>();
+        generator.forEachMember(spec, m -> first.add(m.toString()));
+        List<String> second = new ArrayList<>();
+        generator.forEachMember(spec, m -> second.add(m.toString()));
+
+        assertThat(first).hasSize(500).isEqualTo(second);
+    }
+
+    @Test
+    public void skewedTeamsAndUsernames() {
+        MemberDataSpec spec = new MemberDataSpec();
+        spec.setMemberCount(10_000);
+        spec.setTeamCount(100);
+        spec.setTeamSkew(1.2);
+        spec.setAgeMin(20);
+        spec.setAgeMax(60);
+        spec.setUsernameCardinality(300);
+        spec.setUsernameLength(40);
+
+        int[] teamSizes = new int[100];
+        Set<String> usernames = new HashSet<>();
+        generator.forEachMember(spec, m -> {
+            teamSizes[m.getTeamIndex()]++;
+            usernames.add(m.getUsername());
+            assertThat(m.getAge()).isBetween(20, 60);
+            assertThat(m.getUsername()).hasSize(40);
+        });
+
+        assertThat(teamSizes[0]).isGreaterThan(teamSizes[99] * 50);
+        assertThat(usernames.size()).isLessThanOrEqualTo(300);
+    }
+
+    @Test
+    public void generate() {
+        MemberDataSpec spec = new MemberDataSpec();
+        spec.setMemberCount(250);
+        spec.setTeamCount(3);
+        spec.setBatchSize(100);
+
+        List<Long> teamIds = generator.generate(spec);
+
+        JPAQueryFactory queryFactory = new JPAQueryFactory(em);
+        List<Tuple> counts = queryFactory
+                .select(team.id, member.count())
+                .from(member)
+                .join(member.team, team)
+                .where(team.id.in(teamIds))
+                .groupBy(team.id)
+                .fetch();
+
+        assertThat(counts).hasSize(3);
+        assertThat(counts.stream().mapToLong(t -> t.get(member.count())).sum()).isEqualTo(250);
+    }
+}
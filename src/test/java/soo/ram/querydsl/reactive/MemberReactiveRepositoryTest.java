@@ -0,0 +1,122 @@
+package soo.ram.querydsl.reactive;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.BaseSubscriber;
+import soo.ram.querydsl.dto.MemberSearchCondition;
+import soo.ram.querydsl.dto.MemberTeamDto;
+import soo.ram.querydsl.dto.UsernameMatch;
+import soo.ram.querydsl.entity.Member;
+import soo.ram.querydsl.entity.Team;
+import soo.ram.querydsl.repository.MemberRepository;
+
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * R2DBC 는 다른 커넥션이므로 테스트 데이터는 커밋하고 끝나면 지운다.
+ * fetch-size 를 작게 해서 결과가 여러 청크로 나뉘게 한다.
+ */
+@SpringBootTest(properties = "querydsl.r2dbc.fetch-size=16")
+class MemberReactiveRepositoryTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate tx;
+
+    @Autowired
+    MemberReactiveRepository memberReactiveRepository;
+
+    @Autowired
+    MemberRepository memberRepository;
+
+    @BeforeEach
+    public void before() {
+        tx.executeWithoutResult(status -> {
+            Team team = new Team("reactiveTeam");
+            em.persist(team);
+            for (int i = 0; i < 50; i++) {
+                em.persist(new Member("reactive" + i, i, i % 2 == 0 ? team : null));
+            }
+        });
+    }
+
+    @AfterEach
+    public void after() {
+        tx.executeWithoutResult(status -> {
+            em.createQuery("delete from Member m where m.userName like 'reactive%'").executeUpdate();
+            em.createQuery("delete from Team t where t.name = 'reactiveTeam'").executeUpdate();
+        });
+    }
+
+    @Test
+    public void sameResultAsBlockingSearch() {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername("REACTIVE");
+        condition.setUsernameMatch(UsernameMatch.PREFIX);
+        condition.setIgnoreCase(true);
+        condition.setAgeGoe(10);
+
+        List<MemberTeamDto> streamed = memberReactiveRepository.search(condition)
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(streamed).hasSize(40).containsExactlyInAnyOrderElementsOf(memberRepository.search(condition));
+        assertThat(streamed).extracting("memberId").isSorted();
+        assertThat(streamed).filteredOn(dto -> dto.getTeamId() != null)
+                .extracting("teamName").containsOnly("reactiveTeam");
+    }
+
+    @Test
+    public void deliversOnlyWhatIsRequestedAndHoldsNoConnectionWhilePaused() throws InterruptedException {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername("reactive");
+        condition.setUsernameMatch(UsernameMatch.PREFIX);
+
+        List<MemberTeamDto> received = new CopyOnWriteArrayList<>();
+        BaseSubscriber<MemberTeamDto> slowConsumer = new BaseSubscriber<MemberTeamDto>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+                request(3);
+            }
+
+            @Override
+            protected void hookOnNext(MemberTeamDto value) {
+                received.add(value);
+            }
+        };
+        memberReactiveRepository.search(condition).subscribe(slowConsumer);
+
+        waitUntil(() -> received.size() == 3);
+        Thread.sleep(100);
+        assertThat(received).hasSize(3); //더 요청하기 전에는 3개만
+        assertThat(memberReactiveRepository.acquiredConnections()).isZero(); //멈춰 있는 동안 커넥션도 돌려줬다
+
+        slowConsumer.request(30); //두번째, 세번째 청크
+        waitUntil(() -> received.size() == 33);
+        assertThat(received).extracting("memberId").doesNotHaveDuplicates().isSorted();
+
+        slowConsumer.cancel();
+        waitUntil(() -> memberReactiveRepository.acquiredConnections() == 0);
+        assertThat(memberReactiveRepository.acquiredConnections()).isZero();
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long until = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean() && System.nanoTime() < until) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package soo.ram.querydsl.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+import soo.ram.querydsl.dto.MemberChange;
+import soo.ram.querydsl.dto.MemberChanges;
+import soo.ram.querydsl.dto.MemberSearchCondition;
+import soo.ram.querydsl.entity.Member;
+import soo.ram.querydsl.entity.Team;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+@SpringBootTest
+@Transactional
+class MemberChangesTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    MemberSqlRepository memberSqlRepository;
+
+    @Autowired
+    MemberJpaRepository memberJpaRepository;
+
+    @Autowired
+    MemberRepository memberRepository;
+
+    @Autowired
+    TransactionTemplate tx;
+
+    long since;
+
+    @BeforeEach
+    public void before() {
+        since = latest(0);
+    }
+
+    @Test
+    public void entityWritesBulkWritesAndDeletes() {
+        Team team = new Team("changesTeam");
+        em.persist(team);
+        Member member1 = new Member("changes1", 501, team);
+        Member member2 = new Member("changes2", 601, team);
+        em.persist(member1);
+        em.persist(member2);
+
+        MemberChanges created = memberSqlRepository.findChanges(since, 100);
+        assertThat(created.getMembers()).extracting("username", "teamName", "deleted")
+                .containsExactly(tuple("changes1", "changesTeam", false), tuple("changes2", "changesTeam", false));
+        assertThat(created.getTeams()).extracting("teamName").containsExactly("changesTeam");
+        assertThat(created.isHasMore()).isFalse();
+
+        //엔티티 update
+        member1.setAge(502);
+        MemberChanges updated = memberSqlRepository.findChanges(created.getNext(), 100);
+        assertThat(updated.getMembers()).extracting("username", "age").containsExactly(tuple("changes1", 502));
+        assertThat(updated.getTeams()).isEmpty();
+
+        //벌크 update 도 버전을 올린다
+        assertThat(memberJpaRepository.bulkAddAge(600, 610, 1)).isEqualTo(1);
+        MemberChanges bulkUpdated = memberSqlRepository.findChanges(updated.getNext(), 100);
+        assertThat(bulkUpdated.getMembers()).extracting("username", "age").containsExactly(tuple("changes2", 602));
+
+        //엔티티 삭제, 벌크 삭제 모두 tombstone 을 남긴다
+        memberJpaRepository.delete(em.find(Member.class, member1.getId()));
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername("changes2");
+        assertThat(memberJpaRepository.bulkDelete(condition)).isEqualTo(1);
+
+        MemberChanges deleted = memberSqlRepository.findChanges(bulkUpdated.getNext(), 100);
+        assertThat(deleted.getMembers()).extracting("memberId", "deleted")
+                .containsExactly(tuple(member1.getId(), true), tuple(member2.getId(), true));
+        assertThat(memberSqlRepository.findChanges(deleted.getNext(), 100).getMembers()).isEmpty();
+    }
+
+    @Test
+    public void pagesInVersionOrder() {
+        Team team = new Team("changesTeam");
+        em.persist(team);
+        for (int i = 0; i < 5; i++) {
+            em.persist(new Member("changes" + i, i, team));
+        }
+        team.setName("changesTeamRenamed");
+
+        List<Long> versions = new ArrayList<>();
+        List<String> usernames = new ArrayList<>();
+        List<String> teams = new ArrayList<>();
+        MemberChanges page;
+        long next = since;
+        do {
+            page = memberSqlRepository.findChanges(next, 2);
+            assertThat(page.getMembers().size() + page.getTeams().size()).isLessThanOrEqualTo(2);
+            page.getMembers().forEach(change -> {
+                versions.add(change.getVersion());
+                usernames.add(change.getUsername());
+            });
+            page.getTeams().forEach(change -> {
+                versions.add(change.getVersion());
+                teams.add(change.getTeamName());
+            });
+            next = page.getNext();
+        } while (page.isHasMore());
+
+        assertThat(usernames).containsExactly("changes0", "changes1", "changes2", "changes3", "changes4");
+        assertThat(teams).containsExactly("changesTeamRenamed"); //이름을 바꾼 버전 하나만
+        assertThat(versions).hasSize(6).doesNotHaveDuplicates();
+        assertThat(versions.get(versions.size() - 1)).isEqualTo(next);
+    }
+
+    @Test
+    public void repositoryDeletesLeaveTombstones() {
+        Team team = new Team("changesTeam");
+        em.persist(team);
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Member member = new Member("changes" + i, i, team);
+            em.persist(member);
+            members.add(member);
+        }
+        em.flush();
+
+        memberRepository.deleteById(members.get(0).getId());
+        memberRepository.delete(members.get(1));
+        memberRepository.deleteInBatch(List.of(members.get(2)));
+        memberRepository.deleteAllInBatch();
+        assertThat(memberRepository.count()).isZero();
+
+        assertThat(memberSqlRepository.findChanges(since, 1000).getMembers())
+                .filteredOn(MemberChange::isDeleted)
+                .extracting("memberId")
+                .containsAll(members.stream().map(Member::getId).collect(Collectors.toList()));
+    }
+
+    //먼저 버전을 받고 늦게 커밋하는 쓰기보다 뒤의 버전은 그 쓰기가 끝날 때까지 돌려주지 않는다
+    @Test
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public void holdsBackVersionsOfUncommittedWriters() throws Exception {
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch commit = new CountDownLatch(1);
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> slow = writer.submit(() -> tx.executeWithoutResult(status -> {
+                em.persist(new Member("changesSlow", 0));
+                em.flush();
+                written.countDown();
+                await(commit);
+            }));
+            assertThat(written.await(5, TimeUnit.SECONDS)).isTrue();
+            tx.executeWithoutResult(status -> em.persist(new Member("changesFast", 0)));
+
+            MemberChanges held = memberSqlRepository.findChanges(since, 100);
+            assertThat(held.getMembers()).isEmpty();
+            assertThat(held.getNext()).isEqualTo(since);
+
+            commit.countDown();
+            slow.get(5, TimeUnit.SECONDS);
+            assertThat(memberSqlRepository.findChanges(since, 100).getMembers())
+                    .extracting("username").containsExactly("changesSlow", "changesFast");
+        } finally {
+            commit.countDown();
+            writer.shutdown();
+            tx.executeWithoutResult(status -> em
+                    .createQuery("delete from Member m where m.userName in ('changesSlow', 'changesFast')")
+                    .executeUpdate());
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long latest(long since) {
+        MemberChanges page;
+        do {
+            page = memberSqlRepository.findChanges(since, 1000);
+            since = page.getNext();
+        } while (page.isHasMore());
+        return since;
+    }
+}
@@ -1,21 +1,34 @@
 package soo.ram.querydsl.repository;
 
+import com.querydsl.jpa.impl.JPAQueryFactory;
 import org.assertj.core.api.Assertions;
+import org.hibernate.Session;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import soo.ram.querydsl.dto.MemberField;
 import soo.ram.querydsl.dto.MemberSearchCondition;
 import soo.ram.querydsl.dto.MemberTeamDto;
 import soo.ram.querydsl.entity.Member;
+import soo.ram.querydsl.entity.QMember;
 import soo.ram.querydsl.entity.Team;
+import soo.ram.querydsl.entity.UserDto;
+import soo.ram.querydsl.support.SqlCapture;
 
 import javax.persistence.EntityManager;
 import javax.transaction.Transactional;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
+import static com.querydsl.jpa.JPAExpressions.select;
 import static org.assertj.core.api.Assertions.*;
 import static org.junit.jupiter.api.Assertions.*;
+import static soo.ram.querydsl.entity.QMember.member;
 
 @SpringBootTest
 @Transactional
@@ -141,6 +154,128 @@ class MemberJpaRepositoryTest {
         assertThat(memberTeamDtos).extracting("username").containsExactly("member4");
     }
 
+    @Test
+    public void scalarSubqueryRewrite() {
+        Team teamA = new Team("teamA");
+        Team teamB = new Team("teamB");
+        em.persist(teamA);
+        em.persist(teamB);
+
+        em.persist(new Member("member1", 10, teamA));
+        em.persist(new Member("member2", 20, teamA));
+        em.persist(new Member("member3", 30, teamB));
+        em.persist(new Member("member4", 40, teamB));
+        em.persist(new Member("member5", 50));
+
+        QMember memberSub = new QMember("memberSub");
+        JPAQueryFactory queryFactory = new JPAQueryFactory(em);
+
+        List<UserDto> maxAge = queryFactory
+                .select(member.userName, select(memberSub.age.max()).from(memberSub))
+                .from(member)
+                .fetch().stream()
+                .map(t -> new UserDto(t.get(member.userName), t.get(1, Integer.class)))
+                .collect(Collectors.toList());
+        assertThat(memberJpaRepository.findUserDtoWithMaxAge()).containsExactlyInAnyOrderElementsOf(maxAge);
+
+        List<UserDto> teamMaxAge = queryFactory
+                .select(member.userName, select(memberSub.age.max())
+                        .from(memberSub)
+                        .where(memberSub.team.eq(member.team)))
+                .from(member)
+                .fetch().stream()
+                .map(t -> {
+                    Integer age = t.get(1, Integer.class);
+                    return new UserDto(t.get(member.userName), age == null ? 0 : age);
+                })
+                .collect(Collectors.toList());
+        assertThat(memberJpaRepository.findUserDtoWithTeamMaxAge()).containsExactlyInAnyOrderElementsOf(teamMaxAge)
+                .contains(new UserDto("member1", 20), new UserDto("member3", 40), new UserDto("member5", 0));
+    }
+
+    @Test
+    public void findAllByIds() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            Member member = new Member("bulk" + i, i);
+            memberJpaRepository.save(member);
+            ids.add(member.getId());
+        }
+        em.flush();
+        em.clear();
+
+        Member managed = memberJpaRepository.findById(ids.get(3)).get();
+
+        List<Long> request = new ArrayList<>(ids);
+        Collections.reverse(request);
+        request.add(ids.get(3));
+        request.add(-1L);
+
+        List<Member> result = new ArrayList<>();
+        List<String> sql = SqlCapture.capture(() -> result.addAll(memberJpaRepository.findAllByIds(request)));
+        assertThat(result).hasSize(600);
+        assertThat(result).extracting("id").containsExactlyElementsOf(request.subList(0, 600));
+        assertThat(result.get(596)).isSameAs(managed);
+        //영속성 컨텍스트에 있던 1명을 뺀 600개(없는 id 포함)를 512 + 88 로 나누고, 88 은 128 로 패딩
+        assertThat(sql).extracting(MemberJpaRepositoryTest::parameterCount).containsExactly(512, 128);
+
+        //이제 모두 영속성 컨텍스트에 있으므로 없는 id 만 쿼리한다
+        assertThat(SqlCapture.capture(() -> memberJpaRepository.findAllByIds(request)))
+                .extracting(MemberJpaRepositoryTest::parameterCount).containsExactly(1);
+    }
 
+    private static int parameterCount(String sql) {
+        return (int) sql.chars().filter(c -> c == '?').count();
+    }
+
+    @Test
+    public void searchFields() {
+        Team teamA = new Team("teamA");
+        em.persist(teamA);
+        em.persist(new Member("member1", 10, teamA));
+        em.persist(new Member("member2", 20));
 
-}
\ No newline at end of file
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setAgeLoe(20);
+
+        //팀 이름을 고르지 않으면 조인 없이 외래키로 teamId 를 읽어서 팀 없는 회원도 나온다
+        List<Map<String, Object>> result = memberJpaRepository.searchFields(condition,
+                EnumSet.of(MemberField.TEAM_ID, MemberField.USERNAME));
+        assertThat(result).extracting(row -> row.keySet().toString()).containsOnly("[username, teamId]");
+        assertThat(result).extracting(row -> row.get("username")).contains("member1", "member2");
+        assertThat(result).filteredOn(row -> "member1".equals(row.get("username")))
+                .extracting(row -> row.get("teamId")).containsExactly(teamA.getId());
+
+        condition.setTeamName("teamA");
+        assertThat(memberJpaRepository.searchFields(condition, EnumSet.of(MemberField.TEAM_NAME)))
+                .containsExactly(Collections.singletonMap("teamName", "teamA"));
+    }
+
+    @Test
+    public void readOnlyQueries() {
+        memberJpaRepository.save(new Member("readOnly1", 10));
+        memberJpaRepository.save(new Member("readOnly2", 20));
+        em.flush();
+        em.clear();
+
+        List<Member> result = memberJpaRepository.findByUsername_QuerydslReadOnly("readOnly1");
+        Session session = em.unwrap(Session.class);
+        assertThat(result).hasSize(1).allSatisfy(m -> assertThat(session.isReadOnly(m)).isTrue());
+        assertThat(memberJpaRepository.findAll_QuerydslReadOnly()).allSatisfy(m -> assertThat(session.isReadOnly(m)).isTrue());
+
+        //읽기 전용 엔티티는 바꿔도 flush 되지 않는다
+        result.get(0).setAge(99);
+        em.flush();
+        em.clear();
+        assertThat(memberJpaRepository.findByUsername_Querydsl("readOnly1")).extracting("age").containsExactly(10);
+
+        //이미 영속성 컨텍스트에 있는 엔티티에는 힌트가 적용되지 않는다
+        em.clear();
+        assertThat(memberJpaRepository.findAllReadOnly()).allSatisfy(m -> assertThat(session.isReadOnly(m)).isTrue());
+        em.clear();
+
+        List<Member> stateless = memberJpaRepository.findAll_QuerydslStateless();
+        assertThat(stateless).extracting("userName").contains("readOnly1", "readOnly2");
+        assertThat(stateless).noneSatisfy(m -> assertThat(em.contains(m)).isTrue());
+    }
+}
@@ -0,0 +1,71 @@
+package soo.ram.querydsl.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import soo.ram.querydsl.dto.EstimatedPage;
+import soo.ram.querydsl.dto.MemberSearchCondition;
+import soo.ram.querydsl.dto.MemberTeamDto;
+import soo.ram.querydsl.generator.MemberDataGenerator;
+import soo.ram.querydsl.generator.MemberDataSpec;
+
+import javax.transaction.Transactional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.withinPercentage;
+
+@SpringBootTest(properties = {
+        "querydsl.page-total.exact-threshold=500",
+        "querydsl.page-total.sample-size=400"})
+@Transactional
+class MemberRepositoryEstimateTest {
+
+    @Autowired
+    MemberRepository memberRepository;
+
+    @Autowired
+    MemberDataGenerator generator;
+
+    @BeforeEach
+    public void before() {
+        MemberDataSpec spec = new MemberDataSpec();
+        spec.setMemberCount(4000);
+        spec.setTeamCount(10);
+        generator.generate(spec);
+    }
+
+    @Test
+    public void estimatedWhenLarge() {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setAgeGoe(50);
+
+        EstimatedPage<MemberTeamDto> page = memberRepository.searchPageEstimated(condition, PageRequest.of(0, 10));
+        long exact = memberRepository.searchPageComplex(condition, PageRequest.of(0, 10)).getTotalElements();
+
+        assertThat(page.isApproximate()).isTrue();
+        assertThat(page.getContent()).hasSize(10);
+        assertThat((double) page.getTotalElements()).isCloseTo(exact, withinPercentage(25));
+    }
+
+    @Test
+    public void unfilteredFromTableStatistics() {
+        EstimatedPage<MemberTeamDto> page = memberRepository.searchPageEstimated(new MemberSearchCondition(), PageRequest.of(0, 10));
+
+        assertThat(page.isApproximate()).isTrue();
+        assertThat((double) page.getTotalElements()).isCloseTo(4000, withinPercentage(10));
+    }
+
+    @Test
+    public void exactWhenEstimateIsSmall() {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setAgeGoe(99);
+
+        EstimatedPage<MemberTeamDto> page = memberRepository.searchPageEstimated(condition, PageRequest.of(0, 10));
+
+        assertThat(page.isApproximate()).isFalse();
+        assertThat(page.getTotalElements())
+                .isEqualTo(memberRepository.searchPageComplex(condition, PageRequest.of(0, 10)).getTotalElements());
+    }
+}
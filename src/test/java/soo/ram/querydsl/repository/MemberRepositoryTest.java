@@ -7,6 +7,7 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import soo.ram.querydsl.dto.MemberSearchCondition;
 import soo.ram.querydsl.dto.MemberTeamDto;
+import soo.ram.querydsl.dto.UsernameMatch;
 import soo.ram.querydsl.entity.Member;
 import soo.ram.querydsl.entity.Team;
 
@@ -96,4 +97,78 @@ class MemberRepositoryTest {
         assertThat(result.getSize()).isEqualTo(3);
         assertThat(result.getContent()).extracting("username").containsExactly("member1","member2","member3");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void search_usernameContainsAndPrefix() {
+        Team teamA = new Team("teamA");
+        em.persist(teamA);
+
+        em.persist(new Member("springUser1", 10, teamA));
+        em.persist(new Member("springUser2", 20, teamA));
+        em.persist(new Member("querydslUser", 30, teamA));
+
+        MemberSearchCondition contains = new MemberSearchCondition();
+        contains.setUsername("ngUser");
+        contains.setUsernameMatch(UsernameMatch.CONTAINS);
+        assertThat(memberRepository.search(contains)).extracting("username")
+                .containsExactly("springUser1", "springUser2");
+
+        MemberSearchCondition prefix = new MemberSearchCondition();
+        prefix.setUsername("querydslU");
+        prefix.setUsernameMatch(UsernameMatch.PREFIX);
+        assertThat(memberRepository.search(prefix)).extracting("username")
+                .containsExactly("querydslUser");
+
+        MemberSearchCondition none = new MemberSearchCondition();
+        none.setUsername("ngUserX");
+        none.setUsernameMatch(UsernameMatch.CONTAINS);
+        assertThat(memberRepository.search(none)).isEmpty();
+    }
+
+    //엔티티를 거치지 않은 쓰기(CSV 적재, 벌크 update)도 CONTAINS 검색에 나온다 (UsernameNgramIndex 는 후보만 좁힌다)
+    @Test
+    public void search_usernameContainsFindsBulkWrites() {
+        Member member = new Member("plainName", 10);
+        em.persist(member);
+        em.flush();
+        em.createNativeQuery("insert into member (member_id, user_name, normalized_user_name, age, change_version) " +
+                "values (nextval('hibernate_sequence'), 'nativeNgramUser', 'nativengramuser', 20, nextval('change_version_seq'))")
+                .executeUpdate();
+        em.createQuery("update Member m set m.userName = 'renamedNgramUser', m.normalizedUserName = 'renamedngramuser', " +
+                "m.changeVersion = function('nextval', 'change_version_seq') where m.id = :id")
+                .setParameter("id", member.getId())
+                .executeUpdate();
+
+        MemberSearchCondition contains = new MemberSearchCondition();
+        contains.setUsername("NgramUser");
+        contains.setUsernameMatch(UsernameMatch.CONTAINS);
+        assertThat(memberRepository.search(contains)).extracting("username")
+                .containsExactlyInAnyOrder("nativeNgramUser", "renamedNgramUser");
+    }
+
+    @Test
+    public void search_ignoreCase() {
+        Team teamA = new Team("teamA");
+        em.persist(teamA);
+
+        em.persist(new Member("CaseUser", 10, teamA));
+        Member renamed = new Member("other", 20, teamA);
+        em.persist(renamed);
+        renamed.setUserName("CASEUSER");
+
+        MemberSearchCondition exact = new MemberSearchCondition();
+        exact.setUsername("caseuser");
+        exact.setIgnoreCase(true);
+        assertThat(memberRepository.search(exact)).extracting("username")
+                .containsExactly("CaseUser", "CASEUSER");
+
+        MemberSearchCondition prefix = new MemberSearchCondition();
+        prefix.setUsername("casE");
+        prefix.setUsernameMatch(UsernameMatch.PREFIX);
+        prefix.setIgnoreCase(true);
+        assertThat(memberRepository.search(prefix)).hasSize(2);
+
+        exact.setIgnoreCase(false);
+        assertThat(memberRepository.search(exact)).isEmpty();
+    }
+}
@@ -0,0 +1,76 @@
+package soo.ram.querydsl.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.support.TransactionTemplate;
+import soo.ram.querydsl.dto.MemberSearchCondition;
+import soo.ram.querydsl.dto.TeamRankOrder;
+import soo.ram.querydsl.dto.UsernameMatch;
+import soo.ram.querydsl.entity.Member;
+import soo.ram.querydsl.entity.Team;
+
+import javax.persistence.EntityManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * backend=sql 을 트랜잭션 없이 부른다. (컨트롤러, SearchWarmup 처럼)
+ * 테스트 트랜잭션이 없으니 데이터는 커밋하고 끝나면 지운다.
+ * 컨텍스트가 뜬다는 것 자체가 SearchWarmup 이 sql 백엔드로 검색에 성공했다는 뜻이다.
+ */
+@SpringBootTest(properties = "querydsl.repository.backend=sql")
+class MemberSqlBackendTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate tx;
+
+    @Autowired
+    MemberRepository memberRepository;
+
+    @Autowired
+    MemberSqlRepository memberSqlRepository;
+
+    @BeforeEach
+    public void before() {
+        tx.executeWithoutResult(status -> {
+            Team team = new Team("sqlBackendTeam");
+            em.persist(team);
+            for (int i = 0; i < 5; i++) {
+                em.persist(new Member("sqlBackend" + i, i * 10, team));
+            }
+        });
+    }
+
+    @AfterEach
+    public void after() {
+        tx.executeWithoutResult(status -> {
+            em.createQuery("delete from Member m where m.userName like 'sqlBackend%'").executeUpdate();
+            em.createQuery("delete from Team t where t.name = 'sqlBackendTeam'").executeUpdate();
+        });
+    }
+
+    @Test
+    public void searchesWithoutCallerTransaction() {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername("sqlBackend");
+        condition.setUsernameMatch(UsernameMatch.PREFIX);
+        PageRequest page = PageRequest.of(0, 3);
+
+        assertThat(memberRepository.search(condition)).hasSize(5);
+        assertThat(memberRepository.searchPageSimple(condition, page).getTotalElements()).isEqualTo(5);
+        assertThat(memberRepository.searchPageComplex(condition, page).getTotalElements()).isEqualTo(5);
+        assertThat(memberRepository.searchPageEstimated(condition, page).getTotalElements()).isEqualTo(5);
+        assertThat(memberSqlRepository.searchAfter(condition, null, 3)).hasSize(3);
+        assertThat(memberSqlRepository.findChanges(0, 10).getMembers()).isNotEmpty();
+        assertThat(memberSqlRepository.findTopPerTeam(TeamRankOrder.OLDEST, 2))
+                .filteredOn(dto -> "sqlBackendTeam".equals(dto.getTeamName()))
+                .extracting("username").containsExactly("sqlBackend4", "sqlBackend3");
+    }
+}
@@ -0,0 +1,124 @@
+package soo.ram.querydsl.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import soo.ram.querydsl.dto.MemberSearchCondition;
+import soo.ram.querydsl.dto.MemberTeamDto;
+import soo.ram.querydsl.dto.TeamRankOrder;
+import soo.ram.querydsl.dto.UsernameMatch;
+import soo.ram.querydsl.entity.Member;
+import soo.ram.querydsl.entity.Team;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@Transactional
+class MemberSqlRepositoryTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    MemberSqlRepository memberSqlRepository;
+
+    @Autowired
+    MemberRepository memberRepository;
+
+    @Autowired
+    MemberJpaRepository memberJpaRepository;
+
+    @BeforeEach
+    public void before() {
+        Team teamA = new Team("teamA");
+        Team teamB = new Team("teamB");
+        em.persist(teamA);
+        em.persist(teamB);
+
+        for (int i = 0; i < 10; i++) {
+            em.persist(new Member("sqlMember" + i, i * 10, i % 2 == 0 ? teamA : teamB));
+        }
+        em.persist(new Member("sqlMember10", 100));
+    }
+
+    @Test
+    public void searchSameAsJpa() {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername("sqlmember");
+        condition.setUsernameMatch(UsernameMatch.PREFIX);
+        condition.setIgnoreCase(true);
+        condition.setAgeGoe(30);
+
+        List<MemberTeamDto> result = memberSqlRepository.search(condition);
+
+        assertThat(result).hasSize(8).containsExactlyInAnyOrderElementsOf(memberRepository.search(condition));
+        assertThat(result).filteredOn(dto -> dto.getUsername().equals("sqlMember10"))
+                .extracting("teamName").containsExactly((Object) null);
+    }
+
+    @Test
+    public void searchPageWithWindowCount() {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername("sqlMember");
+        condition.setUsernameMatch(UsernameMatch.PREFIX);
+        condition.setTeamName("teamA");
+
+        Page<MemberTeamDto> page = memberSqlRepository.searchPageSimple(condition, PageRequest.of(1, 2));
+        assertThat(page.getContent()).hasSize(2);
+        assertThat(page.getTotalElements()).isEqualTo(5);
+
+        Page<MemberTeamDto> outOfRange = memberSqlRepository.searchPageSimple(condition, PageRequest.of(5, 2));
+        assertThat(outOfRange.getContent()).isEmpty();
+        assertThat(outOfRange.getTotalElements()).isEqualTo(5);
+
+        Page<MemberTeamDto> complex = memberSqlRepository.searchPageComplex(condition, PageRequest.of(0, 3));
+        assertThat(complex.getContent()).hasSize(3);
+        assertThat(complex.getTotalElements()).isEqualTo(5);
+    }
+
+    @Test
+    public void searchAfter() {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername("sqlMember");
+        condition.setUsernameMatch(UsernameMatch.PREFIX);
+
+        List<MemberTeamDto> first = memberSqlRepository.searchAfter(condition, null, 4);
+        List<MemberTeamDto> second = memberSqlRepository.searchAfter(condition, first.get(3).getMemberId(), 4);
+
+        assertThat(first).extracting("username").containsExactly("sqlMember0", "sqlMember1", "sqlMember2", "sqlMember3");
+        assertThat(second).extracting("username").containsExactly("sqlMember4", "sqlMember5", "sqlMember6", "sqlMember7");
+    }
+
+    @Test
+    public void topPerTeamSameAsJpa() {
+        Team teamA = em.createQuery("select t from Team t where t.name = 'teamA' order by t.id desc", Team.class)
+                .setMaxResults(1).getSingleResult();
+        em.persist(new Member("sqlMember11", 80, teamA)); //sqlMember8 과 같은 나이, id 는 더 크다
+
+        List<MemberTeamDto> oldest = ownTeams(memberSqlRepository.findTopPerTeam(TeamRankOrder.OLDEST, 2));
+        assertThat(oldest).extracting("username")
+                .containsExactly("sqlMember8", "sqlMember11", "sqlMember9", "sqlMember7");
+        assertThat(oldest).isEqualTo(ownTeams(memberJpaRepository.findTopPerTeam(TeamRankOrder.OLDEST, 2)));
+
+        for (TeamRankOrder order : TeamRankOrder.values()) {
+            assertThat(ownTeams(memberSqlRepository.findTopPerTeam(order, 3)))
+                    .hasSize(6)
+                    .isEqualTo(ownTeams(memberJpaRepository.findTopPerTeam(order, 3)));
+        }
+    }
+
+    //다른 테스트가 남긴 팀은 빼고 본다
+    private static List<MemberTeamDto> ownTeams(List<MemberTeamDto> rows) {
+        return rows.stream()
+                .filter(dto -> dto.getUsername().startsWith("sqlMember"))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,87 @@
+package soo.ram.querydsl.repository;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+import soo.ram.querydsl.entity.Member;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = {
+        "querydsl.write-behind.enabled=true",
+        "querydsl.write-behind.max-batch-size=50",
+        "querydsl.write-behind.linger=50ms"
+})
+class MemberWriteBehindTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate tx;
+
+    @Autowired
+    MemberJpaRepository memberJpaRepository;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @AfterEach
+    public void after() {
+        tx.executeWithoutResult(status ->
+                em.createQuery("delete from Member m where m.userName like 'behind%'").executeUpdate());
+    }
+
+    @Test
+    public void groupCommit() {
+        DistributionSummary batches = meterRegistry.summary("member.write-behind.batch");
+        double amountBefore = batches.totalAmount();
+        long countBefore = batches.count();
+
+        List<CompletableFuture<Member>> futures = IntStream.range(0, 120)
+                .mapToObj(i -> memberJpaRepository.saveAsync(new Member("behind" + i, i)))
+                .collect(Collectors.toList());
+
+        List<Member> saved = futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+
+        assertThat(saved).allSatisfy(member -> assertThat(member.getId()).isNotNull());
+        Long count = tx.execute(status -> em
+                .createQuery("select count(m) from Member m where m.userName like 'behind%'", Long.class)
+                .getSingleResult());
+        assertThat(count).isEqualTo(120);
+
+        //한 건씩이 아니라 최대 50건씩 묶어서 커밋했다
+        assertThat(batches.totalAmount() - amountBefore).isEqualTo(120);
+        assertThat(batches.count() - countBefore).isBetween(3L, 10L);
+        assertThat(batches.max()).isLessThanOrEqualTo(50);
+    }
+
+    //배치에 저장할 수 없는 회원이 섞여 있어도 그 회원의 future 만 실패한다
+    @Test
+    public void failedBatchFailsOnlyBadSaves() {
+        List<CompletableFuture<Member>> futures = IntStream.range(0, 10)
+                .mapToObj(i -> memberJpaRepository.saveAsync(new Member("behind" + i, i)))
+                .collect(Collectors.toList());
+        CompletableFuture<Member> tooLong = memberJpaRepository.saveAsync(new Member("behind" + "x".repeat(300), 0));
+
+        assertThatThrownBy(tooLong::join).isInstanceOf(CompletionException.class);
+        assertThat(futures.stream().map(CompletableFuture::join).collect(Collectors.toList()))
+                .allSatisfy(member -> assertThat(member.getId()).isNotNull());
+        Long count = tx.execute(status -> em
+                .createQuery("select count(m) from Member m where m.userName like 'behind%'", Long.class)
+                .getSingleResult());
+        assertThat(count).isEqualTo(10);
+    }
+}
@@ -0,0 +1,100 @@
+package soo.ram.querydsl.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import soo.ram.querydsl.dto.MemberField;
+import soo.ram.querydsl.dto.MemberSearchCondition;
+import soo.ram.querydsl.entity.Member;
+import soo.ram.querydsl.entity.Team;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import static soo.ram.querydsl.support.GoldenSql.assertMatches;
+
+/**
+ * 리포지토리 메서드별 SQL 모양과 개수 회귀 테스트. 기준은 src/test/resources/golden/*.sql
+ */
+@SpringBootTest
+@Transactional
+class RepositorySqlShapeTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    MemberJpaRepository memberJpaRepository;
+
+    @Autowired
+    MemberRepository memberRepository;
+
+    List<Long> ids = new ArrayList<>();
+
+    @BeforeEach
+    public void before() {
+        Team teamA = new Team("teamA");
+        Team teamB = new Team("teamB");
+        em.persist(teamA);
+        em.persist(teamB);
+
+        for (int i = 0; i < 4; i++) {
+            Member member = new Member("member" + (i + 1), (i + 1) * 10, i < 2 ? teamA : teamB);
+            em.persist(member);
+            ids.add(member.getId());
+        }
+        em.flush();
+        em.clear();
+    }
+
+    @Test
+    public void search() {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setAgeGoe(35);
+        condition.setAgeLoe(40);
+        condition.setTeamName("teamB");
+
+        assertMatches("MemberJpaRepository.search", () -> memberJpaRepository.search(condition));
+        assertMatches("MemberRepository.search", () -> memberRepository.search(condition));
+    }
+
+    @Test
+    public void searchFields() {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setAgeLoe(20);
+
+        assertMatches("MemberJpaRepository.searchFields", () -> memberJpaRepository.searchFields(condition,
+                EnumSet.of(MemberField.MEMBER_ID, MemberField.TEAM_ID)));
+    }
+
+    @Test
+    public void searchPage() {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setAgeGoe(10);
+        MemberSearchCondition byTeam = new MemberSearchCondition();
+        byTeam.setTeamName("teamA");
+
+        assertMatches("MemberRepository.searchPageSimple",
+                () -> memberRepository.searchPageSimple(condition, PageRequest.of(0, 3)));
+        assertMatches("MemberRepository.searchPageComplex",
+                () -> memberRepository.searchPageComplex(condition, PageRequest.of(0, 3)));
+        assertMatches("MemberRepository.searchPageComplex-teamName",
+                () -> memberRepository.searchPageComplex(byTeam, PageRequest.of(0, 3)));
+    }
+
+    @Test
+    public void findAllByIds() {
+        assertMatches("MemberJpaRepository.findAllByIds", () -> memberJpaRepository.findAllByIds(ids));
+    }
+
+    @Test
+    public void findUserDtoWithTeamMaxAge() {
+        assertMatches("MemberJpaRepository.findUserDtoWithTeamMaxAge",
+                () -> memberJpaRepository.findUserDtoWithTeamMaxAge());
+    }
+}
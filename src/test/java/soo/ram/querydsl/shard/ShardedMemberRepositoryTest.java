@@ -0,0 +1,144 @@
+package soo.ram.querydsl.shard;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import soo.ram.querydsl.dto.MemberSearchCondition;
+import soo.ram.querydsl.dto.MemberTeamDto;
+import soo.ram.querydsl.dto.UsernameMatch;
+import soo.ram.querydsl.entity.Member;
+import soo.ram.querydsl.entity.Team;
+import soo.ram.querydsl.support.QueryDeadline;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = {"querydsl.sharding.enabled=true", "querydsl.sharding.shards=3"})
+class ShardedMemberRepositoryTest {
+
+    @Autowired
+    MemberShards shards;
+
+    @Autowired
+    ShardedMemberRepository shardedMemberRepository;
+
+    List<Team> teams = new ArrayList<>();
+
+    @BeforeEach
+    public void before() {
+        shards.all().forEach(shard -> shard.write(() ->
+                shard.getEm().createQuery("delete from Member").executeUpdate()
+                        + shard.getEm().createQuery("delete from Team").executeUpdate()));
+
+        for (int i = 0; i < 6; i++) {
+            teams.add(shardedMemberRepository.save(new Team("team" + i)));
+        }
+        for (int i = 0; i < 60; i++) {
+            shardedMemberRepository.save(new Member("member" + i, i, teams.get(i % teams.size())));
+        }
+    }
+
+    @Test
+    public void saveAndFindByIdOnOwningShard() {
+        Team teamA = teams.get(0);
+        Member member = shardedMemberRepository.save(new Member("shardMember", 10, teamA));
+
+        assertThat(shards.shardOf(member.getId())).isSameAs(shards.shardOf(teamA.getId()));
+        assertThat(shardedMemberRepository.findById(member.getId()))
+                .hasValueSatisfying(found -> assertThat(found.getUserName()).isEqualTo("shardMember"));
+        //팀 샤드가 골고루 쓰였는지
+        assertThat(teams.stream().map(team -> shards.shardOf(team.getId())).distinct().count()).isGreaterThan(1);
+    }
+
+    @Test
+    public void searchMergesAllShards() {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setAgeGoe(10);
+        condition.setAgeLoe(29);
+
+        List<MemberTeamDto> result = shardedMemberRepository.search(condition);
+
+        assertThat(result).hasSize(20);
+        assertThat(result).isSortedAccordingTo(Comparator.comparing(MemberTeamDto::getMemberId));
+    }
+
+    //샤드 id 는 기본 DB 의 id 와 겹치므로 샤드마다 자기 인덱스로 후보를 좁힌다
+    @Test
+    public void searchContainsUsesShardIndexes() {
+        shards.all().forEach(shard -> shard.getUsernameIndex().refresh());
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername("mber1");
+        condition.setUsernameMatch(UsernameMatch.CONTAINS);
+        assertThat(shardedMemberRepository.search(condition)).hasSize(11); //member1, member10 ~ member19
+
+        //인덱스가 아직 모르는 회원은 change_version 으로 찾는다
+        shardedMemberRepository.save(new Member("newMember1", 70, teams.get(0)));
+        assertThat(shardedMemberRepository.search(condition)).extracting("username").contains("newMember1").hasSize(12);
+    }
+
+    @Test
+    public void searchPageMergesInSortOrder() {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setAgeGoe(5);
+
+        Page<MemberTeamDto> page = shardedMemberRepository.searchPageComplex(condition,
+                PageRequest.of(2, 10, Sort.by(Sort.Order.desc("age"))));
+
+        assertThat(page.getTotalElements()).isEqualTo(55);
+        assertThat(page.getContent().stream().map(MemberTeamDto::getAge).collect(Collectors.toList()))
+                .containsExactly(39, 38, 37, 36, 35, 34, 33, 32, 31, 30);
+    }
+
+    //마감시간 없이 불러도 한 샤드가 실패하면 다른 샤드에서 실행 중인 쿼리는 취소된다
+    @Test
+    public void failedShardCancelsOtherShardsWithoutDeadline() throws Exception {
+        assertThat(QueryDeadline.current()).isNull();
+        CountDownLatch running = new CountDownLatch(shards.size() - 1);
+        CountDownLatch finished = new CountDownLatch(shards.size() - 1);
+
+        assertThatThrownBy(() -> shardedMemberRepository.scatter(shard -> {
+            if (shard.getIndex() == 0) {
+                awaitQuietly(running);
+                sleepQuietly(500); //다른 샤드의 statement 가 실행되기 시작할 때까지
+                throw new IllegalStateException("shard 0 failed");
+            }
+            running.countDown();
+            try {
+                return shard.getEm()
+                        .createNativeQuery("select count(*) from system_range(1, 1000000) a, system_range(1, 1000000) b where a.x + b.x = 0")
+                        .getSingleResult();
+            } finally {
+                finished.countDown();
+            }
+        })).hasMessageContaining("shard 0 failed");
+
+        assertThat(finished.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
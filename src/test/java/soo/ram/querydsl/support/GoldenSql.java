@@ -0,0 +1,66 @@
+package soo.ram.querydsl.support;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * 리포지토리 메서드가 실행하는 SQL 모양과 개수를 src/test/resources/golden/{name}.sql 과 비교한다.
+ * 쿼리가 바뀌는 것이 의도한 변경이면 mvn test -Dgolden.update=true 로 다시 만들고 diff 를 리뷰해서 커밋한다.
+ */
+public final class GoldenSql {
+
+    static final Path DIRECTORY = Paths.get("src", "test", "resources", "golden");
+
+    private GoldenSql() {
+    }
+
+    public static void assertMatches(String name, Runnable work) {
+        List<String> actual = SqlCapture.capture(work);
+        Path file = DIRECTORY.resolve(name + ".sql");
+
+        if (Boolean.getBoolean("golden.update")) {
+            write(file, actual);
+            return;
+        }
+        if (!Files.exists(file)) {
+            fail("golden 파일이 없습니다: " + file + " (mvn test -Dgolden.update=true 로 만들고 리뷰하세요)\n"
+                    + String.join("\n", actual));
+        }
+        List<String> expected = read(file);
+        assertThat(actual)
+                .as("%s 의 SQL 이 %s 와 다릅니다 (의도한 변경이면 -Dgolden.update=true)", name, file)
+                .containsExactlyElementsOf(expected);
+    }
+
+    private static List<String> read(Path file) {
+        try {
+            return Files.readAllLines(file, StandardCharsets.UTF_8).stream()
+                    .filter(line -> !line.isEmpty() && !line.startsWith("--"))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void write(Path file, List<String> statements) {
+        List<String> lines = new ArrayList<>();
+        lines.add("-- " + statements.size() + " statement(s)");
+        lines.addAll(statements);
+        try {
+            Files.createDirectories(file.getParent());
+            Files.write(file, lines, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package soo.ram.querydsl.support;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OffHeapPageCacheTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    //블록 16바이트, slab 64바이트(4블록), 최대 128바이트(8블록)
+    OffHeapPageCache cache = new OffHeapPageCache(meterRegistry,
+            DataSize.ofBytes(128), DataSize.ofBytes(64), DataSize.ofBytes(16));
+
+    @Test
+    public void valueSpansBlocksAndSlabsAndIsReadBack() throws IOException {
+        String value = "{\"content\":[" + "x".repeat(80) + "]}"; //94바이트 = 6블록, slab 2개
+        put("page1", value);
+
+        assertThat(read("page1")).isEqualTo(value);
+        assertThat(read("page2")).isNull();
+        assertThat(cache.usedBytes()).isEqualTo(6 * 16);
+        assertThat(cache.allocatedBytes()).isEqualTo(128);
+        assertThat(cache.hitRatio()).isEqualTo(0.5);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        put("a", "a".repeat(40)); //3블록
+        put("b", "b".repeat(40)); //3블록
+        read("a"); //b 가 가장 오래 안 쓴 값이 된다
+
+        put("c", "c".repeat(40)); //2블록 남아서 하나를 빼야 한다
+        assertThat(read("b")).isNull();
+        assertThat(read("a")).isEqualTo("a".repeat(40));
+        assertThat(read("c")).isEqualTo("c".repeat(40));
+        assertThat(cache.evictionCount()).isEqualTo(1);
+        assertThat(meterRegistry.get("member.search.page-cache.evictions").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void blocksOfValueBeingReadAreNotReusedUntilClosed() throws IOException {
+        put("a", "a".repeat(64)); //4블록
+        put("b", "b".repeat(64)); //4블록, 가득 참
+
+        try (OffHeapPageCache.Hit reading = cache.get("a")) {
+            read("b"); //a 가 가장 오래 안 쓴 값
+            put("c", "c".repeat(64)); //a 는 빠지지만 읽는 중이라 블록은 그대로, 이어서 b 가 빠지며 자리를 낸다
+            assertThat(cache.get("a")).isNull();
+            assertThat(read("b")).isNull();
+            assertThat(cache.usedBytes()).isEqualTo(128);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            reading.writeTo(Channels.newChannel(out));
+            assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo("a".repeat(64));
+        }
+        assertThat(cache.usedBytes()).isEqualTo(64); //다 읽은 뒤에 a 블록을 돌려준다
+        assertThat(read("c")).isEqualTo("c".repeat(64));
+    }
+
+    @Test
+    public void valueLargerThanCacheIsNotStored() throws IOException {
+        assertThat(cache.put("big", new ByteArrayInputStream(new byte[129]), 129)).isFalse();
+        assertThat(cache.size()).isZero();
+        assertThat(cache.usedBytes()).isZero();
+    }
+
+    private void put(String key, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        assertThat(cache.put(key, new ByteArrayInputStream(bytes), bytes.length)).isTrue();
+    }
+
+    private String read(String key) throws IOException {
+        try (OffHeapPageCache.Hit hit = cache.get(key)) {
+            if (hit == null) {
+                return null;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            hit.writeTo(Channels.newChannel(out));
+            assertThat(out.size()).isEqualTo(hit.length());
+            return out.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package soo.ram.querydsl.support;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+import soo.ram.querydsl.dto.MemberSearchCondition;
+import soo.ram.querydsl.dto.MemberTeamDto;
+import soo.ram.querydsl.dto.UsernameMatch;
+import soo.ram.querydsl.entity.Member;
+import soo.ram.querydsl.entity.QMember;
+import soo.ram.querydsl.entity.Team;
+import soo.ram.querydsl.repository.MemberJpaRepository;
+
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static soo.ram.querydsl.entity.QMember.member;
+
+/**
+ * 구간 쿼리는 다른 커넥션에서 실행되므로 테스트 데이터는 커밋하고 끝나면 지운다.
+ */
+@SpringBootTest
+class ParallelRangeScanTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate tx;
+
+    @Autowired
+    MemberJpaRepository memberJpaRepository;
+
+    @Autowired
+    ParallelRangeScan parallelRangeScan;
+
+    @BeforeEach
+    public void before() {
+        tx.executeWithoutResult(status -> {
+            Team team = new Team("scanTeam");
+            em.persist(team);
+            for (int i = 0; i < 100; i++) {
+                em.persist(new Member("scan" + i, i, i % 2 == 0 ? team : null));
+            }
+        });
+    }
+
+    @AfterEach
+    public void after() {
+        tx.executeWithoutResult(status -> {
+            em.createQuery("delete from Member m where m.userName like 'scan%'").executeUpdate();
+            em.createQuery("delete from Team t where t.name = 'scanTeam'").executeUpdate();
+        });
+    }
+
+    @Test
+    public void searchParallelMatchesSearch() {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername("scan");
+        condition.setUsernameMatch(UsernameMatch.PREFIX);
+        condition.setAgeGoe(10);
+
+        List<MemberTeamDto> parallel = memberJpaRepository.searchParallel(condition);
+        List<MemberTeamDto> sequential = memberJpaRepository.search(condition).stream()
+                .sorted(Comparator.comparing(MemberTeamDto::getMemberId))
+                .collect(Collectors.toList());
+
+        assertThat(parallel).hasSize(90).isEqualTo(sequential);
+    }
+
+    @Test
+    public void findAllParallelInIdOrder() {
+        List<Long> parallel = memberJpaRepository.findAll_QuerydslParallel().stream()
+                .map(Member::getId)
+                .collect(Collectors.toList());
+        List<Long> ids = tx.execute(status -> memberJpaRepository.findAll_Querydsl().stream()
+                .map(Member::getId)
+                .sorted()
+                .collect(Collectors.toList()));
+
+        assertThat(parallel).isEqualTo(ids);
+    }
+
+    //구간 쿼리는 작업 스레드의 세션에서 실행되지만 호출한 스레드의 마감시간 cancel 로 취소된다
+    @Test
+    public void cancelReachesRangeQueries() throws Exception {
+        QMember m2 = new QMember("m2");
+        QMember m3 = new QMember("m3");
+        QMember m4 = new QMember("m4");
+        QueryDeadline deadline = new QueryDeadline(Duration.ofMinutes(5));
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<Long>> scan = caller.submit(() -> deadline.call(() ->
+                    parallelRangeScan.scan(member.id, (query, range) -> query
+                            .select(member.count())
+                            .from(member, m2, m3, m4)
+                            .where(range)
+                            .fetch())));
+
+            //statement 가 실행되기 전에 부른 cancel 은 닿지 않으므로 끝날 때까지 다시 부른다
+            long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+            while (!scan.isDone() && System.nanoTime() < until) {
+                Thread.sleep(200);
+                deadline.cancel();
+            }
+
+            assertThatThrownBy(() -> scan.get(1, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class);
+        } finally {
+            caller.shutdownNow();
+        }
+    }
+
+    @Test
+    public void ranges() {
+        assertThat(ParallelRangeScan.ranges(member.id, 1, 10, 3))
+                .containsExactly(member.id.between(1L, 4L), member.id.between(5L, 7L), member.id.between(8L, 10L));
+        assertThat(ParallelRangeScan.ranges(member.id, 5, 6, 4))
+                .containsExactly(member.id.between(5L, 5L), member.id.between(6L, 6L));
+    }
+}
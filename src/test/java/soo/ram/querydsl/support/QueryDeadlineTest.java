@@ -0,0 +1,143 @@
+package soo.ram.querydsl.support;
+
+import org.hibernate.Session;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.QueryTimeoutException;
+import soo.ram.querydsl.dto.MemberSearchCondition;
+import soo.ram.querydsl.entity.Member;
+import soo.ram.querydsl.repository.MemberRepository;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@SpringBootTest
+@Transactional
+class QueryDeadlineTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    MemberRepository memberRepository;
+
+    @Test
+    public void withinDeadline() throws Exception {
+        em.persist(new Member("deadlineMember", 10));
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername("deadlineMember");
+
+        QueryDeadline deadline = new QueryDeadline(Duration.ofSeconds(5));
+        assertThat(deadline.call(() -> memberRepository.search(condition))).hasSize(1);
+        assertThat(QueryDeadline.current()).isNull();
+    }
+
+    @Test
+    public void expiredDeadline() {
+        QueryDeadline deadline = new QueryDeadline(Duration.ZERO);
+
+        assertThatThrownBy(() -> deadline.call(() -> memberRepository.search(new MemberSearchCondition())))
+                .isInstanceOf(QueryTimeoutException.class);
+    }
+
+    //여러 작업 스레드가 같은 마감시간으로 쿼리를 실행하면 cancel 은 실행 중인 세션을 모두 취소한다
+    @Test
+    public void cancelReachesSessionsOfEveryWorker() throws Exception {
+        QueryDeadline deadline = new QueryDeadline(Duration.ofSeconds(5));
+        Session finished = mock(Session.class);
+        Session running = mock(Session.class);
+        CountDownLatch registered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        try {
+            workers.submit(() -> deadline.call(() -> {
+                deadline.register(finished);
+                return null;
+            })).get(5, TimeUnit.SECONDS);
+            Future<?> slow = workers.submit(() -> deadline.call(() -> {
+                deadline.register(running);
+                registered.countDown();
+                return release.await(5, TimeUnit.SECONDS);
+            }));
+            assertThat(registered.await(5, TimeUnit.SECONDS)).isTrue();
+
+            deadline.cancel();
+            verify(running).cancelQuery();
+            verify(finished, never()).cancelQuery(); //call 이 끝난 스레드의 세션은 빠졌다
+            release.countDown();
+            slow.get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            workers.shutdown();
+        }
+    }
+
+    //작업 스레드가 직접 만든 세션은 그 작업 동안만 등록되고, 같은 스레드의 call 이 등록한 세션은 남는다
+    @Test
+    public void callWithSessionKeepsCallerSessions() throws Exception {
+        QueryDeadline deadline = new QueryDeadline(Duration.ofSeconds(5));
+        Session caller = mock(Session.class);
+        Session worker = mock(Session.class);
+
+        deadline.call(() -> {
+            deadline.register(caller);
+            deadline.call(worker, () -> {
+                assertThat(QueryDeadline.current()).isSameAs(deadline);
+                deadline.cancel();
+                verify(worker).cancelQuery();
+                return null;
+            });
+            assertThat(QueryDeadline.current()).isSameAs(deadline);
+            deadline.cancel();
+            return null;
+        });
+
+        verify(caller, times(2)).cancelQuery();
+        verify(worker, times(1)).cancelQuery();
+        assertThat(QueryDeadline.current()).isNull();
+    }
+
+    //하위 마감은 부모를 따라 취소되지만 부모를 취소하지는 않는다
+    @Test
+    public void childCancelStaysInChild() {
+        QueryDeadline parent = new QueryDeadline(Duration.ofSeconds(5));
+        Session parentSession = mock(Session.class);
+        Session childSession = mock(Session.class);
+        parent.register(parentSession);
+
+        QueryDeadline child = parent.child();
+        child.register(childSession);
+        child.cancel();
+        assertThat(parent.isCancelled()).isFalse();
+        verify(parentSession, never()).cancelQuery();
+
+        QueryDeadline other = parent.child();
+        parent.cancel();
+        assertThat(other.isCancelled()).isTrue();
+        verify(parentSession).cancelQuery();
+    }
+
+    @Test
+    public void cancelledDeadline() {
+        QueryDeadline deadline = new QueryDeadline(Duration.ofSeconds(5));
+        deadline.cancel();
+
+        assertThatThrownBy(() -> deadline.call(() -> memberRepository.search(new MemberSearchCondition())))
+                .isInstanceOf(QueryTimeoutException.class)
+                .hasMessageContaining("cancelled");
+    }
+}
@@ -0,0 +1,151 @@
+package soo.ram.querydsl.support;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.metrics.ApplicationStartup;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import soo.ram.querydsl.dto.MemberSearchCondition;
+import soo.ram.querydsl.dto.UsernameMatch;
+import soo.ram.querydsl.repository.ChangeVersionTracker;
+import soo.ram.querydsl.repository.UsernameNgramIndex;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = {
+        "querydsl.admission.expensive-concurrency=1",
+        "querydsl.admission.expensive-queue=1"
+})
+class SearchAdmissionTest {
+
+    @Autowired
+    SearchAdmission searchAdmission;
+
+    @Autowired
+    QueryDeadlineExecutor queryDeadlineExecutor;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    EntityManagerFactory emf;
+
+    @Test
+    public void classify() {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        assertThat(searchAdmission.classify(condition, null)).isEqualTo(SearchCost.EXPENSIVE);
+
+        condition.setAgeGoe(10);
+        condition.setAgeLoe(80);
+        assertThat(searchAdmission.classify(condition, null)).isEqualTo(SearchCost.EXPENSIVE);
+
+        condition.setAgeLoe(15);
+        assertThat(searchAdmission.classify(condition, null)).isEqualTo(SearchCost.CHEAP);
+        assertThat(searchAdmission.classify(condition, PageRequest.of(0, 5000))).isEqualTo(SearchCost.EXPENSIVE);
+
+        MemberSearchCondition shortContains = new MemberSearchCondition();
+        shortContains.setUsername("me");
+        shortContains.setUsernameMatch(UsernameMatch.CONTAINS);
+        assertThat(searchAdmission.classify(shortContains, PageRequest.of(0, 10))).isEqualTo(SearchCost.EXPENSIVE);
+
+        MemberSearchCondition team = new MemberSearchCondition();
+        team.setTeamName("teamA");
+        assertThat(searchAdmission.classify(team, PageRequest.of(0, 10))).isEqualTo(SearchCost.CHEAP);
+    }
+
+    //CONTAINS 는 인덱스가 후보를 좁혀줄 때만 싸다. 인덱스를 못 쓰면 리포지토리가 like '%x%' 로 전체를 읽는다
+    @Test
+    public void classifyContainsByUsernameIndex() {
+        MemberSearchCondition contains = new MemberSearchCondition();
+        contains.setUsername("noSuchMemberName");
+        contains.setUsernameMatch(UsernameMatch.CONTAINS);
+        assertThat(searchAdmission.classify(contains, null)).isEqualTo(SearchCost.CHEAP);
+
+        UsernameNgramIndex notBuilt = new UsernameNgramIndex(() -> emf, new ChangeVersionTracker(),
+                ApplicationStartup.DEFAULT, 1000, 1000, Duration.ofSeconds(1));
+        SearchAdmission fallback = new SearchAdmission(queryDeadlineExecutor, meterRegistry, notBuilt, 1, 1, 10, 1000);
+        try {
+            assertThat(fallback.classify(contains, null)).isEqualTo(SearchCost.EXPENSIVE);
+        } finally {
+            fallback.shutdown();
+        }
+    }
+
+    @Test
+    public void classifyShortPrefix() {
+        MemberSearchCondition prefix = new MemberSearchCondition();
+        prefix.setUsername("M");
+        prefix.setUsernameMatch(UsernameMatch.PREFIX);
+        prefix.setIgnoreCase(true);
+        assertThat(searchAdmission.classify(prefix, PageRequest.of(0, 10))).isEqualTo(SearchCost.EXPENSIVE);
+
+        prefix.setUsername("Mem");
+        assertThat(searchAdmission.classify(prefix, PageRequest.of(0, 10))).isEqualTo(SearchCost.CHEAP);
+    }
+
+    @Test
+    public void rejectWhenBulkheadIsFull() throws Exception {
+        MemberSearchCondition unfiltered = new MemberSearchCondition();
+        //실행(dispatch)하지 않은 작업은 bulkhead 자리를 계속 잡고 있다
+        WebAsyncTask<List<Object>> first = searchAdmission.submit("test", Duration.ofSeconds(1), unfiltered, null, Collections::emptyList);
+        WebAsyncTask<List<Object>> second = searchAdmission.submit("test", Duration.ofSeconds(1), unfiltered, null, Collections::emptyList);
+        try {
+            assertThatThrownBy(() -> searchAdmission.submit("test", Duration.ofSeconds(1), unfiltered, null, Collections::emptyList))
+                    .isInstanceOf(SearchRejectedException.class)
+                    .satisfies(e -> assertThat(((SearchRejectedException) e).getRetryAfter()).isGreaterThanOrEqualTo(Duration.ofSeconds(1)));
+
+            MemberSearchCondition cheap = new MemberSearchCondition();
+            cheap.setUsername("member1");
+            assertThat(searchAdmission.submit("test", Duration.ofSeconds(1), cheap, null, Collections::emptyList)).isNotNull();
+        } finally {
+            //다른 테스트가 자리를 쓸 수 있게 작업을 끝내서 반납한다
+            first.getCallable().call();
+            second.getCallable().call();
+        }
+    }
+
+    //자리는 작업이 끝나야 돌아온다 (타임아웃으로 응답이 먼저 나가도 쿼리가 끝날 때까지 잡고 있다)
+    @Test
+    public void ticketIsHeldUntilWorkEnds() throws Exception {
+        MemberSearchCondition unfiltered = new MemberSearchCondition();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        WebAsyncTask<Boolean> slow = searchAdmission.submit("test", Duration.ofSeconds(1), unfiltered, null, () -> {
+            running.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+        });
+        WebAsyncTask<List<Object>> queued = searchAdmission.submit("test", Duration.ofSeconds(1), unfiltered, null, Collections::emptyList);
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> result = worker.submit(slow.getCallable());
+            assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+            //타임아웃으로 요청이 끝났다
+            ((Runnable) ReflectionTestUtils.getField(slow, "completionCallback")).run();
+            assertThatThrownBy(() -> searchAdmission.submit("test", Duration.ofSeconds(1), unfiltered, null, Collections::emptyList))
+                    .isInstanceOf(SearchRejectedException.class);
+
+            release.countDown();
+            assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo(true);
+            WebAsyncTask<List<Object>> admitted = searchAdmission.submit("test", Duration.ofSeconds(1), unfiltered, null, Collections::emptyList);
+            assertThat(admitted.getCallable().call()).isEqualTo(Collections.emptyList());
+            queued.getCallable().call();
+        } finally {
+            release.countDown();
+            worker.shutdown();
+        }
+    }
+}
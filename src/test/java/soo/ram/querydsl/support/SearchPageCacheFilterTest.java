@@ -0,0 +1,105 @@
+package soo.ram.querydsl.support;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.support.TransactionTemplate;
+import soo.ram.querydsl.entity.Member;
+
+import javax.persistence.EntityManager;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 실제 서버로 요청해서 WebAsyncTask(async dispatch)로 끝나는 응답도 캐시되는지 본다.
+ * 요청은 다른 커넥션이므로 테스트 데이터는 커밋하고 끝나면 지운다.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "querydsl.page-cache.enabled=true")
+class SearchPageCacheFilterTest {
+
+    static final String URL = "/v2/members?username=pageCache&page=0&size=10";
+
+    @Autowired
+    TestRestTemplate rest;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate tx;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @AfterEach
+    public void after() {
+        tx.executeWithoutResult(status ->
+                em.createQuery("delete from Member m where m.userName = 'pageCache'").executeUpdate());
+    }
+
+    @Test
+    public void secondRequestIsServedFromCacheUntilDataChanges() {
+        tx.executeWithoutResult(status -> em.persist(new Member("pageCache", 10)));
+        double hits = hits();
+
+        ResponseEntity<String> first = rest.getForEntity(URL, String.class);
+        ResponseEntity<String> second = rest.getForEntity(URL, String.class);
+
+        assertThat(first.getStatusCodeValue()).isEqualTo(200);
+        assertThat(first.getBody()).contains("\"username\":\"pageCache\"").contains("\"totalElements\":1");
+        assertThat(second.getBody()).isEqualTo(first.getBody());
+        assertThat(second.getHeaders().getContentType()).isEqualTo(MediaType.APPLICATION_JSON);
+        assertThat(hits()).isEqualTo(hits + 1);
+
+        //커밋된 쓰기가 있으면 새로 조회한다
+        tx.executeWithoutResult(status -> em.persist(new Member("pageCache", 20)));
+        ResponseEntity<String> third = rest.getForEntity(URL, String.class);
+        assertThat(third.getBody()).contains("\"totalElements\":2");
+        assertThat(hits()).isEqualTo(hits + 1);
+    }
+
+    //먼저 버전을 받은 쓰기가 늦게 커밋되면 최대 change_version 은 그대로지만 커밋 세대가 바뀐다
+    @Test
+    public void lateCommitOfEarlierVersionChangesKey() throws Exception {
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch commit = new CountDownLatch(1);
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> slow = writer.submit(() -> tx.executeWithoutResult(status -> {
+                em.persist(new Member("pageCache", 10));
+                em.flush();
+                written.countDown();
+                try {
+                    commit.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            assertThat(written.await(5, TimeUnit.SECONDS)).isTrue();
+            tx.executeWithoutResult(status -> em.persist(new Member("pageCache", 20)));
+            assertThat(rest.getForEntity(URL, String.class).getBody()).contains("\"totalElements\":1");
+
+            commit.countDown();
+            slow.get(5, TimeUnit.SECONDS);
+            assertThat(rest.getForEntity(URL, String.class).getBody()).contains("\"totalElements\":2");
+        } finally {
+            commit.countDown();
+            writer.shutdown();
+        }
+    }
+
+    private double hits() {
+        return meterRegistry.get("member.search.page-cache.requests").tag("result", "hit").counter().count();
+    }
+}
@@ -0,0 +1,119 @@
+package soo.ram.querydsl.support;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SearchSingleFlightTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    SearchSingleFlight singleFlight = new SearchSingleFlight(meterRegistry, true);
+    ExecutorService callers = Executors.newFixedThreadPool(5);
+
+    @AfterEach
+    public void after() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    public void identicalSearchesShareOneExecution() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger executions = new AtomicInteger();
+        List<Future<List<String>>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            results.add(callers.submit(() -> singleFlight.execute("search", "teamA", () -> {
+                executions.incrementAndGet();
+                await(release);
+                return List.of("member1");
+            })));
+        }
+        awaitJoined(4);
+        release.countDown();
+
+        for (Future<List<String>> result : results) {
+            assertThat(result.get(5, TimeUnit.SECONDS)).containsExactly("member1");
+        }
+        assertThat(executions).hasValue(1);
+        assertThat(count("executed")).isEqualTo(1);
+        assertThat(count("joined")).isEqualTo(4);
+        assertThat(singleFlight.inFlight()).isZero();
+
+        //끝난 결과는 남기지 않는다
+        singleFlight.execute("search", "teamA", () -> executions.incrementAndGet());
+        assertThat(executions).hasValue(2);
+    }
+
+    @Test
+    public void failureReachesEveryCaller() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<Object>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(callers.submit(() -> singleFlight.execute("search", "broken", () -> {
+                await(release);
+                throw new QueryTimeoutException("query cancelled");
+            })));
+        }
+        awaitJoined(2);
+        release.countDown();
+
+        for (Future<Object> result : results) {
+            assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(QueryTimeoutException.class);
+        }
+    }
+
+    @Test
+    public void waiterKeepsItsOwnDeadline() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Object> leader = callers.submit(() -> singleFlight.execute("search", "slow", () -> {
+            await(release);
+            return "done";
+        }));
+        while (singleFlight.inFlight() == 0) {
+            Thread.sleep(1);
+        }
+
+        QueryDeadline deadline = new QueryDeadline(Duration.ofMillis(50));
+        assertThatThrownBy(() -> deadline.call(() -> singleFlight.execute("search", "slow", () -> "not run")))
+                .isInstanceOf(QueryTimeoutException.class);
+
+        release.countDown();
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("done");
+    }
+
+    private void awaitJoined(int joined) throws InterruptedException {
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (count("joined") < joined && System.nanoTime() < until) {
+            Thread.sleep(1);
+        }
+    }
+
+    private double count(String result) {
+        return meterRegistry.find("member.search.single-flight").tag("result", result).counters().stream()
+                .mapToDouble(counter -> counter.count()).sum();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
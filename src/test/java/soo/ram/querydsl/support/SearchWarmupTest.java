@@ -0,0 +1,49 @@
+package soo.ram.querydsl.support;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.boot.test.context.SpringBootTest;
+import soo.ram.querydsl.dto.MemberSearchCondition;
+import soo.ram.querydsl.repository.MemberJpaRepository;
+import soo.ram.querydsl.repository.MemberRepository;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class SearchWarmupTest {
+
+    @Autowired
+    MemberJpaRepository memberJpaRepository;
+
+    @Autowired
+    MemberRepository memberRepository;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    public void everyConditionShape() {
+        List<MemberSearchCondition> conditions = SearchWarmup.conditions();
+
+        //username 7가지(없음 + 3가지 x 대소문자) x teamName x ageGoe x ageLoe
+        assertThat(conditions).hasSize(56).doesNotHaveDuplicates();
+    }
+
+    @Test
+    public void run() {
+        BufferingApplicationStartup startup = new BufferingApplicationStartup(10);
+        new SearchWarmup(memberJpaRepository, memberRepository, meterRegistry, startup, 1, Duration.ofSeconds(1))
+                .run(new DefaultApplicationArguments());
+
+        assertThat(meterRegistry.get("member.search.warmup").timer().count()).isEqualTo(1);
+        assertThat(startup.getBufferedTimeline().getEvents())
+                .extracting(event -> event.getStartupStep().getName())
+                .containsExactly("querydsl.search.warmup");
+    }
+}
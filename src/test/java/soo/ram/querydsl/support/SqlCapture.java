@@ -0,0 +1,48 @@
+package soo.ram.querydsl.support;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * 테스트에서 Hibernate 가 실행하는 SQL 을 모으는 StatementInspector. (test application.yml 에 등록)
+ * capture 로 감싼 스레드에서 나간 SQL 만 주석/공백/대소문자를 정리해서 모은다.
+ */
+public class SqlCapture implements StatementInspector {
+
+    private static final ThreadLocal<List<String>> CAPTURED = new ThreadLocal<>();
+    private static final Pattern COMMENT = Pattern.compile("/\\*.*?\\*/", Pattern.DOTALL);
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    //member_i1_2_, col_0_0_ 같은 컬럼 별칭은 엔티티가 늘면 번호가 바뀌므로 뺀다
+    private static final Pattern COLUMN_ALIAS = Pattern.compile("\\s+as\\s+\\w+_\\b", Pattern.CASE_INSENSITIVE);
+
+    @Override
+    public String inspect(String sql) {
+        List<String> captured = CAPTURED.get();
+        if (captured != null) {
+            captured.add(normalize(sql));
+        }
+        return sql;
+    }
+
+    public static List<String> capture(Runnable work) {
+        List<String> previous = CAPTURED.get();
+        List<String> captured = new ArrayList<>();
+        CAPTURED.set(captured);
+        try {
+            work.run();
+        } finally {
+            CAPTURED.set(previous);
+        }
+        return captured;
+    }
+
+    static String normalize(String sql) {
+        String withoutComments = COMMENT.matcher(sql).replaceAll(" ");
+        String withoutAliases = COLUMN_ALIAS.matcher(withoutComments).replaceAll("");
+        return WHITESPACE.matcher(withoutAliases).replaceAll(" ").trim().toLowerCase(Locale.ROOT);
+    }
+}
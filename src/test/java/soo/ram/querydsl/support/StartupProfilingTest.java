@@ -0,0 +1,40 @@
+package soo.ram.querydsl.support;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.core.metrics.ApplicationStartup;
+import soo.ram.querydsl.QuerydslApplication;
+import soo.ram.querydsl.batch.MemberBatchRunner;
+import soo.ram.querydsl.controller.MemberController;
+import soo.ram.querydsl.generator.MemberDataGenerator;
+
+import javax.persistence.EntityManagerFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StartupProfilingTest {
+
+    @Test
+    public void profileOnlyWhenRequested() {
+        SpringApplication plain = new SpringApplication(QuerydslApplication.class);
+        StartupProfiling.configure(plain);
+        assertThat(plain.getApplicationStartup()).isSameAs(ApplicationStartup.DEFAULT);
+
+        SpringApplication profiled = new SpringApplication(QuerydslApplication.class);
+        StartupProfiling.configure(profiled, "--querydsl.startup.profile=true");
+        assertThat(profiled.getApplicationStartup()).isInstanceOf(BufferingApplicationStartup.class);
+    }
+
+    @Test
+    public void eagerRequestPathBeans() {
+        LazyInitializationExcludeFilter filter = StartupProfiling.eagerRequestPathBeans();
+
+        assertThat(filter.isExcluded("entityManagerFactory", null, EntityManagerFactory.class)).isTrue();
+        assertThat(filter.isExcluded("memberController", null, MemberController.class)).isTrue();
+        assertThat(filter.isExcluded("memberBatchRunner", null, MemberBatchRunner.class)).isFalse();
+        assertThat(filter.isExcluded("memberDataGenerator", null, MemberDataGenerator.class)).isFalse();
+        assertThat(filter.isExcluded("unknown", null, null)).isFalse();
+    }
+}
@@ -0,0 +1,2 @@
+-- 1 statement(s)
+select member0_.member_id, member0_.age, member0_.change_version, member0_.normalized_user_name, member0_.team_id, member0_.user_name from member member0_ where member0_.member_id in (? , ? , ? , ?)
@@ -0,0 +1,3 @@
+-- 2 statement(s)
+select member0_.team_id, max(member0_.age) from member member0_ group by member0_.team_id
+select member0_.user_name, member0_.team_id from member member0_
@@ -0,0 +1,2 @@
+-- 1 statement(s)
+select member0_.member_id, member0_.team_id from member member0_ where member0_.age<=?
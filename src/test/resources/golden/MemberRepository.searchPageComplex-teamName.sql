@@ -0,0 +1,3 @@
+-- 2 statement(s)
+select member0_.member_id, member0_.user_name, member0_.age, team1_.team_id, team1_.name from member member0_ left outer join team team1_ on member0_.team_id=team1_.team_id where team1_.name=? limit ?
+select count(member0_.member_id) from member member0_ left outer join team team1_ on member0_.team_id=team1_.team_id where team1_.name=?